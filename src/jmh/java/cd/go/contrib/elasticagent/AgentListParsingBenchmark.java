@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Compares reading the agents listed by the server reflectively and filtering the agents to disable and to terminate
+ * with a stream each, as the plugin used to, against streaming the agents from the JSON and classifying them in a
+ * single pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AgentListParsingBenchmark {
+    private static final Predicate<Agent> AGENT_IDLE_PREDICATE = agent -> agent.configState().equals(Agent.ConfigState.Enabled) && isSafeToRemove(agent.agentState());
+    private static final Predicate<Agent> AGENT_DISABLED_PREDICATE = agent -> agent.configState().equals(Agent.ConfigState.Disabled) && isSafeToRemove(agent.agentState());
+
+    @Param({"500", "5000"})
+    public int listedAgents;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        Agent.AgentState[] agentStates = Agent.AgentState.values();
+        Agent.ConfigState[] configStates = Agent.ConfigState.values();
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < listedAgents; i++) {
+            agents.add(new Agent("k8s-ea-" + i, agentStates[i % agentStates.length], Agent.BuildState.Idle, configStates[i % configStates.length]));
+        }
+        json = Agent.toJSONArray(agents);
+    }
+
+    @Benchmark
+    public void reflectiveParsingAndStreamFilters(Blackhole blackhole) {
+        Agents agents = new Agents(Agent.fromJSONArray(json));
+        Collection<Agent> all = new ArrayList<>(agents.agents());
+        blackhole.consume(all.stream().filter(AGENT_IDLE_PREDICATE).collect(Collectors.toList()));
+        blackhole.consume(all.stream().filter(AGENT_DISABLED_PREDICATE).collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public void streamingParsingAndSinglePassClassification(Blackhole blackhole) {
+        Agents agents = Agents.fromJSONArray(json);
+        blackhole.consume(agents.findInstancesToDisable());
+        blackhole.consume(agents.findInstancesToTerminate());
+    }
+
+    private static boolean isSafeToRemove(Agent.AgentState agentState) {
+        return agentState.equals(Agent.AgentState.Idle) || agentState.equals(Agent.AgentState.Missing) || agentState.equals(Agent.AgentState.LostContact);
+    }
+}
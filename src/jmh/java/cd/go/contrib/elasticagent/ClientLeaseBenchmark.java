@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+
+/**
+ * Measures acquiring and releasing a lease on a pooled client from many threads at once, compared to a copy of the
+ * synchronized lookup the factory used before leases were lock free.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class ClientLeaseBenchmark {
+    private KubernetesClientFactory factory;
+    private SynchronizedClientLookup synchronizedLookup;
+    private PluginSettings settings;
+
+    @Setup
+    public void setUp() {
+        factory = new KubernetesClientFactory(Clock.DEFAULT);
+        settings = new PluginSettings("https://gocd.example.com/go", "https://cluster.example.com", null);
+        // Create the pooled client up front, so that only leasing is measured.
+        factory.client(settings).close();
+        synchronizedLookup = new SynchronizedClientLookup(settings);
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.clearOutExistingClient();
+    }
+
+    @Benchmark
+    public int leaseLockFree() {
+        try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
+            return client.leases();
+        }
+    }
+
+    @Benchmark
+    public int leaseWithSynchronizedLookup() {
+        int leases = synchronizedLookup.lease(settings);
+        synchronizedLookup.release();
+        return leases;
+    }
+
+    /**
+     * The lookup of the factory before leases were lock free, without creating clients: every lease took the factory's
+     * monitor, checked the recycle timer, and compared the cluster profile with that of the single cached client.
+     */
+    private static class SynchronizedClientLookup {
+        private static final long RECYCLE_INTERVAL_IN_MINUTES = 10;
+
+        private final PluginSettings clusterProfileConfigurations;
+        private final long clientCreatedTime = Clock.DEFAULT.now().toEpochMilli();
+        private final AtomicInteger leases = new AtomicInteger();
+
+        private SynchronizedClientLookup(PluginSettings clusterProfileConfigurations) {
+            this.clusterProfileConfigurations = clusterProfileConfigurations;
+        }
+
+        private synchronized int lease(PluginSettings settings) {
+            if (TimeUnit.MILLISECONDS.toMinutes(Clock.DEFAULT.now().toEpochMilli() - clientCreatedTime) > RECYCLE_INTERVAL_IN_MINUTES) {
+                throw new IllegalStateException("The client is not expected to be recycled while measuring.");
+            }
+            if (!settings.equals(clusterProfileConfigurations)) {
+                throw new IllegalStateException("The cluster profile is not expected to change while measuring.");
+            }
+            LOG.debug("Using previously created client.");
+            return leases.incrementAndGet();
+        }
+
+        // Releasing a lease did not take the monitor.
+        private void release() {
+            leases.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares admitting a create request by counting pending instances, as the plugin used to, against the incrementally
+ * maintained pending pod count of {@link KubernetesAgentInstances}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PendingPodAdmissionBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int trackedInstances;
+
+    private final Map<String, KubernetesInstance> instances = new ConcurrentHashMap<>();
+    private KubernetesAgentInstances agentInstances;
+    private int maxPendingPods;
+
+    @Setup
+    public void setUp() {
+        agentInstances = new KubernetesAgentInstances(new KubernetesClientFactory(Clock.DEFAULT));
+        for (int i = 0; i < trackedInstances; i++) {
+            // One in ten tracked pods is still pending.
+            PodState state = i % 10 == 0 ? PodState.Pending : PodState.Running;
+            KubernetesInstance instance = new KubernetesInstance(Instant.now(), null, "k8s-ea-" + i, new HashMap<>(), (long) i, state);
+            instances.put(instance.podName(), instance);
+            agentInstances.register(instance);
+        }
+        maxPendingPods = trackedInstances;
+    }
+
+    @Benchmark
+    public boolean recountPendingInstances() {
+        int pendingInstances = 0;
+        for (KubernetesInstance instance : instances.values()) {
+            if (instance.isPending()) {
+                pendingInstances++;
+            }
+        }
+        return pendingInstances < maxPendingPods;
+    }
+
+    @Benchmark
+    public boolean reserveIncrementally() {
+        boolean reserved = agentInstances.reservePendingPod(maxPendingPods);
+        if (reserved) {
+            agentInstances.releasePendingPod();
+        }
+        return reserved;
+    }
+}
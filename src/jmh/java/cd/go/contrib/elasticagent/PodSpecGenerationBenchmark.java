@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.fabric8.kubernetes.api.model.Pod;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares generating a pod for the {@code yaml} and {@code remote} (json) pod spec types by rendering and parsing the
+ * template with a new mapper, as the plugin used to, against instantiating the pod from a {@link PodSpecPrototype}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PodSpecGenerationBenchmark {
+    private static final String POD_YAML = """
+            apiVersion: v1
+            kind: Pod
+            metadata:
+              name: pod-name-prefix-{{ POD_POSTFIX }}
+              labels:
+                app: web
+            spec:
+              containers:
+              - name: gocd-agent-container-{{ CONTAINER_POSTFIX }}
+                image: {{ GOCD_AGENT_IMAGE }}:{{ LATEST_VERSION }}
+                imagePullPolicy: IfNotPresent
+                securityContext:
+                  privileged: true
+                resources:
+                  limits:
+                    cpu: "1"
+                    memory: 1Gi
+                env:
+                - name: AGENT_NAME
+                  value: agent-{{ POD_POSTFIX }}
+                volumeMounts:
+                - name: workdir
+                  mountPath: /godata
+              volumes:
+              - name: workdir
+                emptyDir: {}
+            """;
+    private static final String POD_JSON = """
+            {
+              "apiVersion": "v1",
+              "kind": "Pod",
+              "metadata": {"name": "pod-name-prefix-{{ POD_POSTFIX }}", "labels": {"app": "web"}},
+              "spec": {
+                "containers": [{
+                  "name": "gocd-agent-container-{{ CONTAINER_POSTFIX }}",
+                  "image": "{{ GOCD_AGENT_IMAGE }}:{{ LATEST_VERSION }}",
+                  "imagePullPolicy": "IfNotPresent",
+                  "securityContext": {"privileged": true},
+                  "resources": {"limits": {"cpu": "1", "memory": "1Gi"}},
+                  "env": [{"name": "AGENT_NAME", "value": "agent-{{ POD_POSTFIX }}"}],
+                  "volumeMounts": [{"name": "workdir", "mountPath": "/godata"}]
+                }],
+                "volumes": [{"name": "workdir", "emptyDir": {}}]
+              }
+            }
+            """;
+
+    @Param({"yaml", "json"})
+    public String podSpecType;
+
+    private String podSpec;
+    private ObjectMapper sharedMapper;
+
+    @Setup
+    public void setUp() {
+        sharedMapper = "json".equals(podSpecType) ? KubernetesInstanceFactory.JSON_MAPPER : KubernetesInstanceFactory.YAML_MAPPER;
+        podSpec = "json".equals(podSpecType) ? POD_JSON : POD_YAML;
+    }
+
+    @Benchmark
+    public Pod renderAndParse() throws IOException {
+        ObjectMapper mapper = "json".equals(podSpecType) ? new ObjectMapper(new JsonFactory()) : new ObjectMapper(new YAMLFactory());
+        return mapper.readValue(KubernetesInstanceFactory.getTemplatedPodSpec(podSpec), Pod.class);
+    }
+
+    @Benchmark
+    public Pod instantiatePrototype() throws IOException {
+        return KubernetesInstanceFactory.buildPod(podSpec, sharedMapper);
+    }
+}
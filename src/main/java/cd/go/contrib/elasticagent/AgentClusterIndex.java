@@ -0,0 +1,54 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the id of every elastic agent known to the plugin to the {@link KubernetesAgentInstances} of the cluster that
+ * runs its pod, so that an agent's cluster is found without asking each cluster in turn.
+ * <p>
+ * The index is kept up to date by the agent instances it is given to, as they register and forget pods.
+ */
+public class AgentClusterIndex {
+    private final Map<String, KubernetesAgentInstances> clustersByAgentId = new ConcurrentHashMap<>();
+
+    void add(String elasticAgentId, KubernetesAgentInstances agentInstances) {
+        clustersByAgentId.put(elasticAgentId, agentInstances);
+    }
+
+    void remove(String elasticAgentId, KubernetesAgentInstances agentInstances) {
+        clustersByAgentId.remove(elasticAgentId, agentInstances);
+    }
+
+    /**
+     * @return the agent instances of the cluster running the agent's pod, or {@code null} if no cluster knows the agent
+     */
+    public KubernetesAgentInstances clusterOf(String elasticAgentId) {
+        return clustersByAgentId.get(elasticAgentId);
+    }
+
+    public boolean contains(String elasticAgentId) {
+        return clustersByAgentId.containsKey(elasticAgentId);
+    }
+
+    public int size() {
+        return clustersByAgentId.size();
+    }
+}
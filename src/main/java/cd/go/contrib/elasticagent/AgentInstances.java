@@ -77,6 +77,14 @@ public interface AgentInstances<T> {
      */
     void refreshAll(PluginSettings pluginSettings);
 
+    /**
+     * Returns whether an agent instance has already been created, or is being created, for the job with the given id.
+     * This must not call out to the cloud provider, so that repeated create requests for a job can be rejected cheaply.
+     *
+     * @param jobId the id of the job
+     */
+    boolean isAgentCreatedForJob(Long jobId);
+
     /**
      * This
      * Returns an agent instance with the specified <code>id</code> or <code>null</code>, if the agent is not found.
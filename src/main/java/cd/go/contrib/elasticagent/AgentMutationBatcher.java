@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Collects agents to disable and delete, and sends them to the server with one request for each on {@link #flush()},
+ * instead of one request per caller.
+ * <p>
+ * A flush sends the disables before the deletes, so an agent whose disable and delete are flushed together is always
+ * disabled before it is deleted. The deletes are not sent at all when the disables fail.
+ */
+public class AgentMutationBatcher {
+    private final PluginRequest pluginRequest;
+    private final List<Mutation> disables = new ArrayList<>();
+    private final List<Mutation> deletes = new ArrayList<>();
+
+    public AgentMutationBatcher(PluginRequest pluginRequest) {
+        this.pluginRequest = pluginRequest;
+    }
+
+    /**
+     * @return a future that completes once the agents have been disabled by a flush
+     */
+    public synchronized CompletableFuture<Void> disable(Collection<Agent> agents) {
+        return add(disables, agents);
+    }
+
+    /**
+     * @return a future that completes once the agents have been deleted by a flush
+     */
+    public synchronized CompletableFuture<Void> delete(Collection<Agent> agents) {
+        return add(deletes, agents);
+    }
+
+    public synchronized boolean isEmpty() {
+        return disables.isEmpty() && deletes.isEmpty();
+    }
+
+    /**
+     * Sends the agents collected so far. The futures of the agents that could not be sent complete exceptionally.
+     *
+     * @throws ServerRequestFailedException when the server fails to disable or delete the agents
+     */
+    public void flush() {
+        final List<Mutation> toDisable;
+        final List<Mutation> toDelete;
+        synchronized (this) {
+            toDisable = new ArrayList<>(disables);
+            toDelete = new ArrayList<>(deletes);
+            disables.clear();
+            deletes.clear();
+        }
+
+        try {
+            send(toDisable, pluginRequest::disableAgents);
+        } catch (RuntimeException e) {
+            fail(toDelete, e);
+            throw e;
+        }
+        send(toDelete, pluginRequest::deleteAgents);
+    }
+
+    private static CompletableFuture<Void> add(List<Mutation> mutations, Collection<Agent> agents) {
+        if (agents.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Mutation mutation = new Mutation(List.copyOf(agents), new CompletableFuture<>());
+        mutations.add(mutation);
+        return mutation.done();
+    }
+
+    private static void send(List<Mutation> mutations, AgentsRequest request) {
+        if (mutations.isEmpty()) {
+            return;
+        }
+
+        Map<String, Agent> agents = new LinkedHashMap<>();
+        for (Mutation mutation : mutations) {
+            for (Agent agent : mutation.agents()) {
+                agents.putIfAbsent(agent.elasticAgentId(), agent);
+            }
+        }
+        try {
+            request.send(new ArrayList<>(agents.values()));
+        } catch (RuntimeException e) {
+            fail(mutations, e);
+            throw e;
+        }
+        for (Mutation mutation : mutations) {
+            mutation.done().complete(null);
+        }
+    }
+
+    private static void fail(List<Mutation> mutations, RuntimeException e) {
+        for (Mutation mutation : mutations) {
+            mutation.done().completeExceptionally(e);
+        }
+    }
+
+    private record Mutation(List<Agent> agents, CompletableFuture<Void> done) {
+    }
+
+    @FunctionalInterface
+    private interface AgentsRequest {
+        void send(Collection<Agent> agents);
+    }
+}
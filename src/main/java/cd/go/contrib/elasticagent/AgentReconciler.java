@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
+
+/**
+ * Cleans up the agents of each known cluster on its own schedule, so that idle, stale and unregistered pods do not
+ * wait for the next server ping.
+ * <p>
+ * A reconciliation cleans up its cluster with the same {@link ClusterCleanup} as a server ping does. It is skipped
+ * while a server ping is cleaning up the cluster, and its API calls go through the cluster's rate limiter and circuit
+ * breaker. The scheduler only starts reconciliations, which run on the cluster clean up executor so that a slow
+ * cluster does not hold up the reconciliation of other clusters.
+ */
+public class AgentReconciler {
+    public static final String INTERVAL_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.reconciler.interval.in.seconds";
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor cleanupExecutor;
+    private final PluginRequest pluginRequest;
+    private final Duration interval;
+    private final Map<String, Cluster> clusters = new ConcurrentHashMap<>();
+
+    public AgentReconciler(PluginRequest pluginRequest, Duration interval) {
+        this(Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("k8s-agent-reconciler")), ClusterCleanup.clusterCleanupExecutor(), pluginRequest, interval);
+    }
+
+    //used for testing..
+    AgentReconciler(ScheduledExecutorService scheduler, Executor cleanupExecutor, PluginRequest pluginRequest, Duration interval) {
+        this.scheduler = scheduler;
+        this.cleanupExecutor = cleanupExecutor;
+        this.pluginRequest = pluginRequest;
+        this.interval = interval;
+    }
+
+    /**
+     * @return the reconciliation interval, or {@code null} when the reconciler is disabled
+     */
+    public static Duration intervalFromSystemProperty() {
+        long seconds = Long.getLong(INTERVAL_SYSTEM_PROPERTY_KEY, 0);
+        return seconds > 0 ? Duration.ofSeconds(seconds) : null;
+    }
+
+    /**
+     * Starts reconciling the given cluster, or updates the settings of a cluster already being reconciled.
+     */
+    public void track(ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances agentInstances) {
+        clusters.computeIfAbsent(clusterProfileProperties.uuid(), uuid -> {
+            Cluster cluster = new Cluster(clusterProfileProperties, agentInstances);
+            cluster.schedule = scheduler.scheduleWithFixedDelay(() -> startReconciling(uuid), interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+            return cluster;
+        }).update(clusterProfileProperties, agentInstances);
+    }
+
+    public void untrack(String clusterUuid) {
+        Cluster cluster = clusters.remove(clusterUuid);
+        if (cluster != null && cluster.schedule != null) {
+            cluster.schedule.cancel(false);
+        }
+    }
+
+    boolean isTracking(String clusterUuid) {
+        return clusters.containsKey(clusterUuid);
+    }
+
+    // A cluster whose previous reconciliation is still running is not reconciled again until it finishes.
+    void startReconciling(String clusterUuid) {
+        Cluster cluster = clusters.get(clusterUuid);
+        if (cluster == null || !cluster.reconciling.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            cleanupExecutor.execute(() -> {
+                try {
+                    reconcile(clusterUuid);
+                } finally {
+                    cluster.reconciling.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            cluster.reconciling.set(false);
+            LOG.warn(format("[agent-reconciler] Failed to start reconciling the agents of cluster {0}.", clusterUuid), e);
+        }
+    }
+
+    void reconcile(String clusterUuid) {
+        Cluster cluster = clusters.get(clusterUuid);
+        if (cluster == null) {
+            return;
+        }
+
+        ClusterProfileProperties clusterProfileProperties = cluster.clusterProfileProperties;
+        KubernetesAgentInstances agentInstances = cluster.agentInstances;
+        try {
+            if (!agentInstances.tryCleanup(() -> reconcile(clusterProfileProperties, agentInstances, cluster.deferredWork))) {
+                LOG.debug(format("[agent-reconciler] Skipping cluster {0}, it is being cleaned up by a server ping.", clusterUuid));
+            }
+        } catch (Exception e) {
+            // Thrown exceptions would cancel the schedule, the next reconciliation retries instead.
+            LOG.warn(format("[agent-reconciler] Failed to reconcile the agents of cluster {0}.", clusterUuid), e);
+        }
+    }
+
+    private void reconcile(ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances agentInstances, DeferredPingWork deferredWork) throws Exception {
+        agentInstances.refreshAll(clusterProfileProperties);
+
+        AgentMutationBatcher agentMutations = new AgentMutationBatcher(pluginRequest);
+        // Already runs on the clean up executor, and holds the clean up of the cluster on this thread.
+        ClusterCleanup cleanup = new ClusterCleanup("Agent Reconciler", Map.of(clusterProfileProperties.uuid(), agentInstances), pluginRequest,
+                agentMutations, deferredWork, Runnable::run, Clock.DEFAULT, Instant.MAX);
+        try {
+            cleanup.cleanUp(List.of(clusterProfileProperties));
+        } finally {
+            agentMutations.flush();
+        }
+    }
+
+    private static class Cluster {
+        // Without a deadline, only holds the agents of the cluster that a failed reconciliation did not get to.
+        private final DeferredPingWork deferredWork = new DeferredPingWork();
+        private final AtomicBoolean reconciling = new AtomicBoolean();
+        private volatile ClusterProfileProperties clusterProfileProperties;
+        private volatile KubernetesAgentInstances agentInstances;
+        private volatile ScheduledFuture<?> schedule;
+
+        private Cluster(ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances agentInstances) {
+            update(clusterProfileProperties, agentInstances);
+        }
+
+        private void update(ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances agentInstances) {
+            this.clusterProfileProperties = clusterProfileProperties;
+            this.agentInstances = agentInstances;
+        }
+    }
+}
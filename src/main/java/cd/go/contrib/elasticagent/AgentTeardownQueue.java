@@ -0,0 +1,236 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
+
+/**
+ * Tears down the agents of completed jobs in the background, so that job completion requests return straight away.
+ * <p>
+ * A teardown disables the agent, terminates its pod and deletes the agent. Each teardown is kept until it completes,
+ * and a failed step is retried with exponential backoff without repeating the steps that already succeeded. After
+ * {@link #MAX_ATTEMPTS} attempts the teardown is given up, leaving the agent to the server ping's cleanup.
+ * <p>
+ * Disables and deletes are collected for {@link #BATCH_WINDOW}, so that the agents of jobs that complete together are
+ * disabled and deleted with one request each.
+ */
+public class AgentTeardownQueue {
+    static final int MAX_ATTEMPTS = 8;
+    static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    static final Duration MAX_BACKOFF = Duration.ofMinutes(1);
+    static final Duration BATCH_WINDOW = Duration.ofMillis(100);
+    private static final int THREADS = 4;
+
+    private static final AgentTeardownQueue AGENT_TEARDOWN_QUEUE = new AgentTeardownQueue(
+            Executors.newScheduledThreadPool(THREADS, daemonThreadFactory("k8s-agent-teardown")), Clock.DEFAULT);
+
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final Map<String, Teardown> teardowns = new ConcurrentHashMap<>();
+    private final Map<PluginRequest, AgentMutationBatcher> batchers = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong givenUp = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+    //used for testing..
+    AgentTeardownQueue(ScheduledExecutorService scheduler, Clock clock) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    public static AgentTeardownQueue instance() {
+        return AGENT_TEARDOWN_QUEUE;
+    }
+
+    public void enqueue(String elasticAgentId, PluginSettings settings, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest) {
+        Teardown teardown = new Teardown(elasticAgentId, settings, agentInstances, pluginRequest, clock.now());
+        if (teardowns.putIfAbsent(elasticAgentId, teardown) != null) {
+            LOG.debug(format("[agent-teardown] Teardown of elastic agent {0} is already queued.", elasticAgentId));
+            return;
+        }
+        advance(teardown);
+    }
+
+    private void advance(Teardown teardown) {
+        if (!teardown.disabled) {
+            batcher(teardown).disable(teardown.agents()).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    failed(teardown, e);
+                } else {
+                    teardown.disabled = true;
+                    advance(teardown);
+                }
+            });
+            scheduleFlush();
+        } else if (!teardown.terminated) {
+            scheduler.execute(() -> terminate(teardown));
+        } else {
+            batcher(teardown).delete(teardown.agents()).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    failed(teardown, e);
+                } else {
+                    completed(teardown);
+                }
+            });
+            scheduleFlush();
+        }
+    }
+
+    private void terminate(Teardown teardown) {
+        try {
+            teardown.agentInstances.terminate(teardown.elasticAgentId, teardown.settings);
+        } catch (Exception e) {
+            failed(teardown, e);
+            return;
+        }
+        teardown.terminated = true;
+        advance(teardown);
+    }
+
+    private AgentMutationBatcher batcher(Teardown teardown) {
+        return batchers.computeIfAbsent(teardown.pluginRequest, AgentMutationBatcher::new);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, BATCH_WINDOW.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        for (AgentMutationBatcher batcher : batchers.values()) {
+            try {
+                batcher.flush();
+            } catch (Exception e) {
+                // The teardowns in the batch are failed and retried on their own.
+                LOG.debug("[agent-teardown] Failed to send a batch of agent disables or deletes.", e);
+            }
+        }
+    }
+
+    private void failed(Teardown teardown, Throwable e) {
+        teardown.attempts++;
+        if (teardown.attempts >= MAX_ATTEMPTS) {
+            teardowns.remove(teardown.elasticAgentId);
+            givenUp.incrementAndGet();
+            LOG.error(format("[agent-teardown] Giving up on tearing down elastic agent {0} after {1} attempts, leaving it to the server ping.", teardown.elasticAgentId, teardown.attempts), e);
+            return;
+        }
+
+        Duration backoff = backoff(teardown.attempts);
+        LOG.warn(format("[agent-teardown] Failed to tear down elastic agent {0}, retrying in {1} ms.", teardown.elasticAgentId, backoff.toMillis()), e);
+        scheduler.schedule(() -> advance(teardown), backoff.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void completed(Teardown teardown) {
+        teardowns.remove(teardown.elasticAgentId);
+        long latencyMillis = Duration.between(teardown.enqueuedAt, clock.now()).toMillis();
+        completed.incrementAndGet();
+        totalLatencyMillis.addAndGet(latencyMillis);
+        maxLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+    }
+
+    static Duration backoff(int attempts) {
+        Duration backoff = INITIAL_BACKOFF.multipliedBy(1L << Math.min(attempts - 1, 16));
+        return backoff.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : backoff;
+    }
+
+    public Stats stats() {
+        long completedTeardowns = completed.get();
+        return new Stats(teardowns.size(), completedTeardowns, givenUp.get(),
+                completedTeardowns == 0 ? 0 : totalLatencyMillis.get() / completedTeardowns, maxLatencyMillis.get());
+    }
+
+    private static class Teardown {
+        private final String elasticAgentId;
+        private final PluginSettings settings;
+        private final AgentInstances<KubernetesInstance> agentInstances;
+        private final PluginRequest pluginRequest;
+        private final Instant enqueuedAt;
+        // Each step of a teardown starts once the previous one is over, possibly on another thread.
+        private volatile int attempts;
+        private volatile boolean disabled;
+        private volatile boolean terminated;
+
+        private Teardown(String elasticAgentId, PluginSettings settings, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest, Instant enqueuedAt) {
+            this.elasticAgentId = elasticAgentId;
+            this.settings = settings;
+            this.agentInstances = agentInstances;
+            this.pluginRequest = pluginRequest;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        private List<Agent> agents() {
+            Agent agent = new Agent();
+            agent.setElasticAgentId(elasticAgentId);
+            return List.of(agent);
+        }
+    }
+
+    public static class Stats {
+        private final int queueDepth;
+        private final long completed;
+        private final long givenUp;
+        private final long averageLatencyMillis;
+        private final long maxLatencyMillis;
+
+        Stats(int queueDepth, long completed, long givenUp, long averageLatencyMillis, long maxLatencyMillis) {
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.givenUp = givenUp;
+            this.averageLatencyMillis = averageLatencyMillis;
+            this.maxLatencyMillis = maxLatencyMillis;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getGivenUp() {
+            return givenUp;
+        }
+
+        public long getAverageLatencyMillis() {
+            return averageLatencyMillis;
+        }
+
+        public long getMaxLatencyMillis() {
+            return maxLatencyMillis;
+        }
+    }
+}
@@ -17,34 +17,91 @@
 package cd.go.contrib.elasticagent;
 
 
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.*;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * Represents a map of {@link Agent#elasticAgentId()} to the {@link Agent} for easy lookups
  */
 public class Agents {
+    private static final Agent.AgentState[] AGENT_STATES = Agent.AgentState.values();
+    private static final Agent.BuildState[] BUILD_STATES = Agent.BuildState.values();
+    private static final Agent.ConfigState[] CONFIG_STATES = Agent.ConfigState.values();
 
-    // Filter for agents that can be disabled safely
-    private static final Predicate<Agent> AGENT_IDLE_PREDICATE = metadata -> {
-        Agent.AgentState agentState = metadata.agentState();
-        return metadata.configState().equals(Agent.ConfigState.Enabled) && (agentState.equals(Agent.AgentState.Idle) || agentState.equals(Agent.AgentState.Missing) || agentState.equals(Agent.AgentState.LostContact));
-    };
-    // Filter for agents that can be terminated safely
-    private static final Predicate<Agent> AGENT_DISABLED_PREDICATE = metadata -> {
-        Agent.AgentState agentState = metadata.agentState();
-        return metadata.configState().equals(Agent.ConfigState.Disabled) && (agentState.equals(Agent.AgentState.Idle) || agentState.equals(Agent.AgentState.Missing) || agentState.equals(Agent.AgentState.LostContact));
-    };
-    private final Map<String, Agent> agents = new HashMap<>();
+    private final Map<String, Agent> agents;
+    // The agents to disable and to terminate, worked out together on first use.
+    private volatile Classification classification;
 
     public Agents() {
+        this.agents = new HashMap<>();
     }
 
     public Agents(Collection<Agent> toCopy) {
+        this.agents = new HashMap<>(capacityFor(toCopy.size()));
         addAll(toCopy);
     }
 
+    /**
+     * Reads the agents listed by the server straight from the JSON array of agents, without building an intermediate
+     * list of agents or deserializing the agents reflectively.
+     */
+    public static Agents fromJSONArray(String json) {
+        Agents agents = new Agents();
+        try (JsonReader reader = new JsonReader(new StringReader(json))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                agents.add(readAgent(reader));
+            }
+            reader.endArray();
+        } catch (IOException | IllegalStateException e) {
+            throw new IllegalArgumentException("Failed to parse the list of agents", e);
+        }
+        return agents;
+    }
+
+    private static Agent readAgent(JsonReader reader) throws IOException {
+        String agentId = null;
+        Agent.AgentState agentState = null;
+        Agent.BuildState buildState = null;
+        Agent.ConfigState configState = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "agent_id" -> agentId = reader.nextString();
+                case "agent_state" -> agentState = enumValue(AGENT_STATES, reader.nextString());
+                case "build_state" -> buildState = enumValue(BUILD_STATES, reader.nextString());
+                case "config_state" -> configState = enumValue(CONFIG_STATES, reader.nextString());
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new Agent(agentId, agentState, buildState, configState);
+    }
+
+    // Unknown values are read as null, as Gson does.
+    private static <E extends Enum<E>> E enumValue(E[] values, String name) {
+        for (E value : values) {
+            if (value.name().equals(name)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static int capacityFor(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
     public void addAll(Collection<Agent> toAdd) {
         for (Agent agent : toAdd) {
             add(agent);
@@ -55,28 +112,60 @@ public class Agents {
         addAll(agents.agents());
     }
 
+    // Agents that can be disabled safely
     public Collection<Agent> findInstancesToDisable() {
-        return agents.values().stream().filter(AGENT_IDLE_PREDICATE).collect(Collectors.toList());
+        return classification().toDisable();
     }
 
+    // Agents that can be terminated safely
     public Collection<Agent> findInstancesToTerminate() {
-        return agents.values().stream().filter(AGENT_DISABLED_PREDICATE).collect(Collectors.toList());
+        return classification().toTerminate();
+    }
+
+    private Classification classification() {
+        Classification current = classification;
+        if (current == null) {
+            current = classify(agents.values());
+            classification = current;
+        }
+        return current;
+    }
+
+    private static Classification classify(Collection<Agent> agents) {
+        List<Agent> toDisable = new ArrayList<>();
+        List<Agent> toTerminate = new ArrayList<>();
+        for (Agent agent : agents) {
+            Agent.AgentState agentState = agent.agentState();
+            if (agentState != Agent.AgentState.Idle && agentState != Agent.AgentState.Missing && agentState != Agent.AgentState.LostContact) {
+                continue;
+            }
+            if (agent.configState() == Agent.ConfigState.Enabled) {
+                toDisable.add(agent);
+            } else if (agent.configState() == Agent.ConfigState.Disabled) {
+                toTerminate.add(agent);
+            }
+        }
+        return new Classification(Collections.unmodifiableList(toDisable), Collections.unmodifiableList(toTerminate));
     }
 
     public Set<String> agentIds() {
-        return new LinkedHashSet<>(agents.keySet());
+        return Collections.unmodifiableSet(agents.keySet());
     }
 
     public boolean containsAgentWithId(String agentId) {
         return agents.containsKey(agentId);
     }
 
+    // Read-only views rather than copies, as the agents are listed on every server ping.
     public Collection<Agent> agents() {
-        return new ArrayList<>(agents.values());
+        return Collections.unmodifiableCollection(agents.values());
     }
 
     public void add(Agent agent) {
         agents.put(agent.elasticAgentId(), agent);
+        classification = null;
     }
 
+    private record Classification(List<Agent> toDisable, List<Agent> toTerminate) {
+    }
 }
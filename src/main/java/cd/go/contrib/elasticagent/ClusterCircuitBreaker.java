@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Tracks whether the API server of a cluster is answering, so that calls to a cluster that is down fail fast instead of
+ * waiting for the request timeout on every server ping.
+ * <p>
+ * The breaker opens after {@link #FAILURE_THRESHOLD} consecutive failures. While it is open calls are rejected, except
+ * for a single probe call every {@link #OPEN_DURATION}, during which the breaker is half-open. A successful call closes
+ * the breaker and a failed probe opens it again.
+ */
+public class ClusterCircuitBreaker {
+    static final int FAILURE_THRESHOLD = 3;
+    static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final Clock clock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openedAt;
+
+    public ClusterCircuitBreaker() {
+        this(Clock.DEFAULT);
+    }
+
+    //used for testing..
+    ClusterCircuitBreaker(Clock clock) {
+        this.clock = clock;
+    }
+
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        Instant now = clock.now();
+        if (now.isBefore(openedAt.plus(OPEN_DURATION))) {
+            return false;
+        }
+
+        // Let this call through as a probe, and hold back the next one for another interval.
+        state = State.HALF_OPEN;
+        openedAt = now;
+        return true;
+    }
+
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openedAt = null;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            state = State.OPEN;
+            openedAt = clock.now();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
+
+/**
+ * Cleans up the agents of a set of clusters: terminates the pods of disabled agents and of agents that never
+ * registered, and disables idle agents. Both the server ping and the agent reconciler clean up clusters with it.
+ * <p>
+ * Works from a single listing of the server's agents. The agents are only listed again after disabling agents, as the
+ * server does not disable an agent that has been assigned work in the meantime. Agents are disabled and deleted
+ * through the given {@link AgentMutationBatcher}.
+ * <p>
+ * Stale pods are terminated before idle agents are disabled. Work that does not fit before the deadline is deferred,
+ * and the next clean up resumes it before any new work of the same kind. Work carried over to a cluster that cannot be
+ * cleaned up, because its circuit breaker is open, is deferred again.
+ */
+public class ClusterCleanup {
+    // Pods are terminated in chunks, so that a clean up can stop between chunks once its deadline has passed.
+    static final int TERMINATION_CHUNK_SIZE = 50;
+
+    // Clusters are cleaned up in parallel, so that a clean up takes about as long as its slowest cluster.
+    private static final ExecutorService CLUSTER_CLEANUP_EXECUTOR = Executors.newCachedThreadPool(daemonThreadFactory("k8s-cluster-cleanup"));
+
+    private final String operation;
+    private final Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances;
+    private final PluginRequest pluginRequest;
+    private final AgentMutationBatcher agentMutations;
+    private final DeferredPingWork deferredWork;
+    private final Executor executor;
+    private final Clock clock;
+    private final Instant deadline;
+    private final Set<String> deletedAgentIds = ConcurrentHashMap.newKeySet();
+
+    public ClusterCleanup(String operation, Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, PluginRequest pluginRequest,
+                          AgentMutationBatcher agentMutations, DeferredPingWork deferredWork, Clock clock, Instant deadline) {
+        this(operation, clusterSpecificAgentInstances, pluginRequest, agentMutations, deferredWork, CLUSTER_CLEANUP_EXECUTOR, clock, deadline);
+    }
+
+    /**
+     * @param executor runs the clean up of each cluster. Work that already holds the clean up of its cluster, see
+     *                 {@link KubernetesAgentInstances#tryCleanup}, cleans it up on its own thread instead.
+     */
+    public ClusterCleanup(String operation, Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, PluginRequest pluginRequest,
+                   AgentMutationBatcher agentMutations, DeferredPingWork deferredWork, Executor executor, Clock clock, Instant deadline) {
+        this.operation = operation;
+        this.clusterSpecificAgentInstances = clusterSpecificAgentInstances;
+        this.pluginRequest = pluginRequest;
+        this.agentMutations = agentMutations;
+        this.deferredWork = deferredWork;
+        this.executor = executor;
+        this.clock = clock;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the executor that clusters are cleaned up on
+     */
+    public static Executor clusterCleanupExecutor() {
+        return CLUSTER_CLEANUP_EXECUTOR;
+    }
+
+    /**
+     * @return the agents as last listed from the server, without the agents deleted by the clean up
+     */
+    public Agents cleanUp(List<ClusterProfileProperties> allClusterProfileProperties) throws Exception {
+        Agents agents = pluginRequest.listAgents();
+        // Only taken once the agents are listed, so that a clean up that fails to list them leaves the work in place.
+        List<DeferredPingWork.Item> carriedOver = deferredWork.drain();
+        terminateStalePods(allClusterProfileProperties, agents, carriedOver, true);
+
+        if (disableIdleAgents(allClusterProfileProperties, agents, carriedOver)) {
+            agents = pluginRequest.listAgents();
+            terminateStalePods(allClusterProfileProperties, agents, List.of(), false);
+        }
+        return agents;
+    }
+
+    public Set<String> deletedAgentIds() {
+        return deletedAgentIds;
+    }
+
+    public boolean isWithinDeadline() {
+        return !clock.now().isAfter(deadline);
+    }
+
+    private void terminateStalePods(List<ClusterProfileProperties> allClusterProfileProperties, Agents agents, List<DeferredPingWork.Item> carriedOver,
+                                    boolean includeUnregistered) throws Exception {
+        CompletableFuture<?>[] cleanups = allClusterProfileProperties.stream()
+                .map(clusterProfileProperties -> CompletableFuture.runAsync(() -> cleanupCluster(clusterProfileProperties, agents,
+                        carriedOverAgentIds(carriedOver, DeferredPingWork.Kind.TERMINATE_STALE_PODS, clusterProfileProperties), includeUnregistered), executor))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(cleanups).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private boolean disableIdleAgents(List<ClusterProfileProperties> allClusterProfileProperties, Agents agents, List<DeferredPingWork.Item> carriedOver) {
+        Map<String, List<Agent>> idleAgentsByCluster = new LinkedHashMap<>();
+        for (ClusterProfileProperties clusterProfileProperties : allClusterProfileProperties) {
+            KubernetesAgentInstances kubernetesAgentInstances = clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
+            Set<String> carriedOverAgentIds = carriedOverAgentIds(carriedOver, DeferredPingWork.Kind.DISABLE_IDLE_AGENTS, clusterProfileProperties);
+            List<Agent> idleAgents = agentsToDisable(clusterProfileProperties, agents, carriedOverAgentIds, kubernetesAgentInstances);
+            if (isWithinDeadline()) {
+                idleAgentsByCluster.put(clusterProfileProperties.uuid(), idleAgents);
+            } else {
+                deferIdleAgents(clusterProfileProperties.uuid(), idleAgents);
+            }
+        }
+
+        List<Agent> instancesToDisable = idleAgentsByCluster.values().stream().flatMap(List::stream).toList();
+        if (instancesToDisable.isEmpty()) {
+            return false;
+        }
+        // Flushed straight away, as the agents are listed again once they are disabled.
+        CompletableFuture<Void> disabled = agentMutations.disable(instancesToDisable);
+        try {
+            agentMutations.flush();
+        } catch (RuntimeException e) {
+            if (disabled.isCompletedExceptionally()) {
+                idleAgentsByCluster.forEach(this::deferIdleAgents);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    private void deferIdleAgents(String clusterUuid, List<Agent> idleAgents) {
+        deferredWork.defer(DeferredPingWork.Kind.DISABLE_IDLE_AGENTS, clusterUuid, idleAgents.stream().map(Agent::elasticAgentId).toList());
+    }
+
+    // Agents deferred by an earlier clean up come first, as long as they are still idle and still belong to the cluster.
+    private static List<Agent> agentsToDisable(ClusterProfileProperties clusterProfileProperties, Agents agents, Set<String> carriedOverAgentIds,
+                                               KubernetesAgentInstances kubernetesAgentInstances) {
+        Map<String, Agent> idleAgents = new LinkedHashMap<>();
+        for (Agent agent : agents.findInstancesToDisable()) {
+            if (carriedOverAgentIds.contains(agent.elasticAgentId()) && kubernetesAgentInstances.hasInstance(agent.elasticAgentId())) {
+                idleAgents.put(agent.elasticAgentId(), agent);
+            }
+        }
+        for (Agent agent : kubernetesAgentInstances.instancesCreatedAfterTimeout(clusterProfileProperties, agents).findInstancesToDisable()) {
+            idleAgents.putIfAbsent(agent.elasticAgentId(), agent);
+        }
+        return new ArrayList<>(idleAgents.values());
+    }
+
+    private void cleanupCluster(ClusterProfileProperties clusterProfileProperties, Agents agents, Set<String> carriedOverAgentIds, boolean includeUnregistered) {
+        KubernetesAgentInstances kubernetesAgentInstances = clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
+        try {
+            // Waits for another clean up of the cluster to finish, as both may try to terminate the same pods.
+            kubernetesAgentInstances.cleanup(() -> doCleanupCluster(clusterProfileProperties, agents, carriedOverAgentIds, includeUnregistered, kubernetesAgentInstances));
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void doCleanupCluster(ClusterProfileProperties clusterProfileProperties, Agents agents, Set<String> carriedOverAgentIds, boolean includeUnregistered,
+                                  KubernetesAgentInstances kubernetesAgentInstances) throws Exception {
+        // A cluster whose API server is failing is skipped, so that it does not hold up the clean up of other clusters.
+        boolean cleanedUp = false;
+        try {
+            cleanedUp = kubernetesAgentInstances.callClusterForCleanup(operation, clusterProfileProperties, () -> {
+                List<Agent> toBeTerminated = agentsToTerminate(agents, carriedOverAgentIds, kubernetesAgentInstances);
+                for (int from = 0; from < toBeTerminated.size(); from += TERMINATION_CHUNK_SIZE) {
+                    if (!isWithinDeadline()) {
+                        List<String> remaining = toBeTerminated.subList(from, toBeTerminated.size()).stream().map(Agent::elasticAgentId).toList();
+                        LOG.warn(format("[{0}] Ran out of time, deferring termination of {1} pods to the next clean up.", operation, remaining.size()));
+                        deferredWork.defer(DeferredPingWork.Kind.TERMINATE_STALE_PODS, clusterProfileProperties.uuid(), remaining);
+                        return;
+                    }
+                    List<Agent> chunk = toBeTerminated.subList(from, Math.min(from + TERMINATION_CHUNK_SIZE, toBeTerminated.size()));
+                    deletedAgentIds.addAll(terminateDisabledAgents(chunk, clusterProfileProperties, kubernetesAgentInstances));
+                }
+
+                if (includeUnregistered && isWithinDeadline()) {
+                    kubernetesAgentInstances.terminateUnregisteredInstances(clusterProfileProperties, agents);
+                }
+            });
+        } finally {
+            if (!cleanedUp) {
+                deferredWork.defer(DeferredPingWork.Kind.TERMINATE_STALE_PODS, clusterProfileProperties.uuid(), carriedOverAgentIds);
+            }
+        }
+    }
+
+    // Agents of other clusters are left to their own cluster, which may be cleaning them up at the same time. Agents
+    // deferred by an earlier clean up come first.
+    private static List<Agent> agentsToTerminate(Agents agents, Set<String> carriedOverAgentIds, KubernetesAgentInstances kubernetesAgentInstances) {
+        return agents.findInstancesToTerminate().stream()
+                .filter(agent -> kubernetesAgentInstances.hasInstance(agent.elasticAgentId()))
+                .sorted(Comparator.comparing((Agent agent) -> !carriedOverAgentIds.contains(agent.elasticAgentId())))
+                .toList();
+    }
+
+    private static Set<String> carriedOverAgentIds(List<DeferredPingWork.Item> carriedOver, DeferredPingWork.Kind kind, ClusterProfileProperties clusterProfileProperties) {
+        Set<String> agentIds = new HashSet<>();
+        for (DeferredPingWork.Item item : carriedOver) {
+            if (item.kind() == kind && item.clusterUuid().equals(clusterProfileProperties.uuid())) {
+                agentIds.addAll(item.agentIds());
+            }
+        }
+        return agentIds;
+    }
+
+    private List<String> terminateDisabledAgents(Collection<Agent> toBeTerminated, ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances dockerContainers) {
+        List<String> agentIds = toBeTerminated.stream().map(Agent::elasticAgentId).toList();
+        PodTerminationResult result = dockerContainers.terminate(agentIds, clusterProfileProperties);
+
+        if (!result.failures().isEmpty()) {
+            LOG.warn(format("[{0}] Failed to terminate pods {1}, will retry on the next clean up.", operation, result.failures().keySet()));
+        }
+
+        List<Agent> toBeDeleted = toBeTerminated.stream().filter(agent -> result.isTerminated(agent.elasticAgentId())).toList();
+        agentMutations.delete(toBeDeleted);
+        return toBeDeleted.stream().map(Agent::elasticAgentId).toList();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import io.fabric8.kubernetes.client.http.BasicBuilder;
+import io.fabric8.kubernetes.client.http.HttpRequest;
+import io.fabric8.kubernetes.client.http.HttpResponse;
+import io.fabric8.kubernetes.client.http.Interceptor;
+import io.fabric8.kubernetes.client.http.RequestTags;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static java.text.MessageFormat.format;
+
+/**
+ * Limits the rate of requests a client sends to the API server of a cluster with a token bucket, which holds up to
+ * {@code burst} tokens and is refilled at {@code qps} tokens a second. A request waits until a token is available.
+ * <p>
+ * When the API server throttles a request with HTTP 429, the rate is halved and no requests are sent until the server's
+ * {@code Retry-After} has passed. The rate then recovers by a tenth of the configured rate for every second without
+ * throttling.
+ */
+class ClusterRateLimiter implements Interceptor {
+    static final String NAME = "cluster-rate-limiter";
+    static final int TOO_MANY_REQUESTS = 429;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double configuredQps;
+    private final int burst;
+    private double qps;
+    private double tokens;
+    private long lastRefillNanos;
+    private long lastThrottledNanos;
+    private long blockedUntilNanos;
+
+    ClusterRateLimiter(double qps, int burst) {
+        this(qps, burst, System.nanoTime());
+    }
+
+    //used for testing..
+    ClusterRateLimiter(double qps, int burst, long nowNanos) {
+        this.configuredQps = qps;
+        this.qps = qps;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = nowNanos;
+        this.lastThrottledNanos = nowNanos;
+        this.blockedUntilNanos = nowNanos;
+    }
+
+    @Override
+    public void before(BasicBuilder builder, HttpRequest request, RequestTags tags) {
+        acquire();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> afterFailure(BasicBuilder builder, HttpResponse<?> response, RequestTags tags) {
+        if (response.code() == TOO_MANY_REQUESTS) {
+            throttled(System.nanoTime(), retryAfterSeconds(response));
+        }
+        return CompletableFuture.completedFuture(false);
+    }
+
+    void acquire() {
+        long waitNanos = reserve(System.nanoTime());
+        if (waitNanos <= 0) {
+            return;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes a token, going into debt when the bucket is empty.
+     *
+     * @return how long the caller has to wait before its token is available
+     */
+    synchronized long reserve(long nowNanos) {
+        refill(nowNanos);
+        tokens -= 1;
+        long waitForToken = tokens >= 0 ? 0 : (long) (-tokens / qps * NANOS_PER_SECOND);
+        return Math.max(waitForToken, blockedUntilNanos - nowNanos);
+    }
+
+    synchronized void throttled(long nowNanos, long retryAfterSeconds) {
+        refill(nowNanos);
+        qps = Math.max(configuredQps / 16, qps / 2);
+        lastThrottledNanos = nowNanos;
+        blockedUntilNanos = Math.max(blockedUntilNanos, nowNanos + TimeUnit.SECONDS.toNanos(retryAfterSeconds));
+        LOG.warn(format("[rate-limiter] Kubernetes API server throttled a request, slowing down to {0} requests a second for {1} seconds.", qps, retryAfterSeconds));
+    }
+
+    synchronized double qps() {
+        return qps;
+    }
+
+    private void refill(long nowNanos) {
+        double elapsedSeconds = (double) Math.max(0, nowNanos - lastRefillNanos) / NANOS_PER_SECOND;
+        lastRefillNanos = Math.max(lastRefillNanos, nowNanos);
+
+        if (qps < configuredQps && nowNanos - lastThrottledNanos > NANOS_PER_SECOND) {
+            qps = Math.min(configuredQps, qps + configuredQps / 10 * elapsedSeconds);
+        }
+        tokens = Math.min(burst, tokens + elapsedSeconds * qps);
+    }
+
+    private static long retryAfterSeconds(HttpResponse<?> response) {
+        try {
+            return Math.max(1, Long.parseLong(response.header("Retry-After").trim()));
+        } catch (RuntimeException e) {
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import cd.go.contrib.elasticagent.model.JobIdentifier;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
+import static java.text.MessageFormat.format;
+
+/**
+ * Writes to the console log of jobs in the background, so that creating an agent never waits on the server.
+ * <p>
+ * The lines written to a job's console log are collected for {@link #FLUSH_INTERVAL} and sent with a single append.
+ * Up to {@link #MAX_PENDING_LINES_PER_JOB} lines are kept per job between appends, however many appenders write to
+ * it; further lines are dropped and replaced by a count of the dropped lines.
+ */
+public class ConsoleLogWriter {
+    static final Duration FLUSH_INTERVAL = Duration.ofMillis(500);
+    static final int MAX_PENDING_LINES_PER_JOB = 100;
+    private static final DateTimeFormatter MESSAGE_PREFIX_FORMATTER = DateTimeFormatter.ofPattern("'##|'HH:mm:ss.SSS '[go]'");
+
+    private static final ConsoleLogWriter CONSOLE_LOG_WRITER = new ConsoleLogWriter(
+            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("k8s-console-log")), Clock.DEFAULT, FLUSH_INTERVAL);
+
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+    private final Duration flushInterval;
+    private final Map<JobIdentifier, JobLog> jobLogs = new ConcurrentHashMap<>();
+    private final Queue<JobIdentifier> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    //used for testing..
+    ConsoleLogWriter(ScheduledExecutorService scheduler, Clock clock, Duration flushInterval) {
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.flushInterval = flushInterval;
+    }
+
+    public static ConsoleLogWriter instance() {
+        return CONSOLE_LOG_WRITER;
+    }
+
+    public ConsoleLogAppender appenderFor(JobIdentifier jobIdentifier, PluginRequest pluginRequest) {
+        return text -> append(jobIdentifier, pluginRequest, text);
+    }
+
+    private void append(JobIdentifier jobIdentifier, PluginRequest pluginRequest, String text) {
+        String line = line(text);
+        jobLogs.compute(jobIdentifier, (job, jobLog) -> {
+            if (jobLog == null) {
+                jobLog = new JobLog(job, pluginRequest);
+                pending.add(job);
+            }
+            jobLog.append(line);
+            return jobLog;
+        });
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::flush, flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void flush() {
+        flushScheduled.set(false);
+        for (JobIdentifier job = pending.poll(); job != null; job = pending.poll()) {
+            // Lines written from here on start a new log for the job, sent by the next flush.
+            JobLog jobLog = jobLogs.remove(job);
+            if (jobLog == null) {
+                continue;
+            }
+            try {
+                jobLog.pluginRequest.appendToConsoleLog(jobLog.jobIdentifier, jobLog.text());
+            } catch (Exception e) {
+                LOG.warn(format("Failed to append to console log for {0}.", jobLog.jobIdentifier.getRepresentation()), e);
+            }
+        }
+    }
+
+    private String line(String text) {
+        return String.format("%s %s\n", MESSAGE_PREFIX_FORMATTER.format(LocalDateTime.ofInstant(clock.now(), ZoneOffset.UTC)), text);
+    }
+
+    // Only written to while its job's entry is being computed, and only read once removed from the map of job logs.
+    private class JobLog {
+        private final JobIdentifier jobIdentifier;
+        private final PluginRequest pluginRequest;
+        private final List<String> lines = new ArrayList<>();
+        private int droppedLines;
+
+        private JobLog(JobIdentifier jobIdentifier, PluginRequest pluginRequest) {
+            this.jobIdentifier = jobIdentifier;
+            this.pluginRequest = pluginRequest;
+        }
+
+        private void append(String line) {
+            if (lines.size() < MAX_PENDING_LINES_PER_JOB) {
+                lines.add(line);
+            } else {
+                droppedLines++;
+            }
+        }
+
+        private String text() {
+            StringBuilder text = new StringBuilder();
+            lines.forEach(text::append);
+            if (droppedLines > 0) {
+                text.append(line(format("{0} console log lines were dropped, as they were written faster than they could be sent.", droppedLines)));
+            }
+            return text.toString();
+        }
+    }
+}
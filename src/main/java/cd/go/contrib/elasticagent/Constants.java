@@ -50,6 +50,7 @@ public interface Constants {
     String ENVIRONMENT_LABEL_KEY = "Elastic-Agent-Environment-Name";
     String JOB_ID_LABEL_KEY = "Elastic-Agent-Job-Id";
     String JOB_IDENTIFIER_LABEL_KEY = "Elastic-Agent-Job-Identifier";
+    String SERVER_ID_LABEL_KEY = "Elastic-Agent-Server-Id";
 
     String KUBERNETES_POD_KIND_LABEL_KEY = "kind";
     String KUBERNETES_POD_KIND_LABEL_VALUE = "kubernetes-elastic-agent";
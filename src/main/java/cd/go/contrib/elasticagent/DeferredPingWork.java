@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the clean up work that a server ping did not get to within its time budget, so that the next ping resumes it
+ * before taking on new work. Work is handed out in priority order: pods to terminate first, then agents to disable,
+ * each oldest first.
+ * <p>
+ * Deferred work only names the agents it concerns. Whoever resumes it checks them against the current state of the
+ * server and the cluster, as they may have changed since.
+ */
+public class DeferredPingWork {
+    private static final DeferredPingWork DEFERRED_PING_WORK = new DeferredPingWork();
+
+    public enum Kind {
+        // Declared in priority order
+        TERMINATE_STALE_PODS, DISABLE_IDLE_AGENTS
+    }
+
+    public record Item(Kind kind, String clusterUuid, List<String> agentIds, long sequence) implements Comparable<Item> {
+        @Override
+        public int compareTo(Item other) {
+            int byKind = kind.compareTo(other.kind);
+            return byKind != 0 ? byKind : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Item> items = new PriorityQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public static DeferredPingWork instance() {
+        return DEFERRED_PING_WORK;
+    }
+
+    public void defer(Kind kind, String clusterUuid, Collection<String> agentIds) {
+        if (agentIds.isEmpty()) {
+            return;
+        }
+        synchronized (items) {
+            items.add(new Item(kind, clusterUuid, List.copyOf(agentIds), sequence.incrementAndGet()));
+        }
+    }
+
+    /**
+     * Removes and returns all deferred work, in priority order.
+     */
+    public List<Item> drain() {
+        synchronized (items) {
+            List<Item> drained = new ArrayList<>(items.size());
+            while (!items.isEmpty()) {
+                drained.add(items.poll());
+            }
+            return drained;
+        }
+    }
+
+    public int size() {
+        synchronized (items) {
+            return items.size();
+        }
+    }
+}
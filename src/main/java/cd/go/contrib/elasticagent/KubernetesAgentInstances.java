@@ -19,27 +19,62 @@ package cd.go.contrib.elasticagent;
 import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 
-import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
 import static java.text.MessageFormat.format;
 
 public class KubernetesAgentInstances implements AgentInstances<KubernetesInstance> {
+    public static final String POD_INFORMER_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.pod.informer.enabled";
+    public static final String METADATA_ONLY_LISTING_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.pod.listing.metadata.only";
+
+    // Bounds the number of request threads that a slow API server can hold up at once.
+    static final int MAX_CONCURRENT_CLUSTER_CALLS = 4;
+
+    // Used in place of a pod name in the job index while a pod for the job is being created.
+    private static final String POD_BEING_CREATED = "";
+
     private final ConcurrentHashMap<String, KubernetesInstance> instances = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, String> podNamesByJobId = new ConcurrentHashMap<>();
     public Clock clock = Clock.DEFAULT;
-    final Semaphore semaphore = new Semaphore(0, true);
+    // Pending instances plus pending pod slots reserved by create requests that are still creating their pod.
+    private final AtomicInteger pendingPods = new AtomicInteger();
 
     private KubernetesClientFactory factory;
     private KubernetesInstanceFactory kubernetesInstanceFactory;
+    // Null for instances that are not tracked plugin wide, such as the unregistered instances found by a server ping.
+    private final AgentClusterIndex agentClusterIndex;
+
+    private final KubernetesPodTerminator podTerminator = new KubernetesPodTerminator();
+    // Pods being terminated right now, so that concurrent clean ups never delete the same pod twice.
+    private final Set<String> podsBeingTerminated = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock cleanupLock = new ReentrantLock();
+
+    private final Object podInformerLock = new Object();
+    private KubernetesPodInformer podInformer;
+
+    private final ClusterCircuitBreaker circuitBreaker = new ClusterCircuitBreaker();
+    private final Semaphore bulkhead = new Semaphore(MAX_CONCURRENT_CLUSTER_CALLS);
+    // Clean ups take turns, so a single permit of their own keeps requests from starving them of calls to the cluster.
+    private final Semaphore cleanupBulkhead = new Semaphore(1);
+
+    // The settings the cluster was last refreshed with, so that its pooled client can be retired once it is shut down.
+    private volatile PluginSettings lastRefreshedSettings;
+
+    private final Object refreshLock = new Object();
+    private final AtomicLong refreshesStarted = new AtomicLong();
+    private long lastCompletedRefresh;
 
     public KubernetesAgentInstances() {
         this(KubernetesClientFactory.instance(), new KubernetesInstanceFactory());
@@ -49,68 +84,222 @@ public class KubernetesAgentInstances implements AgentInstances<KubernetesInstan
         this(factory, new KubernetesInstanceFactory());
     }
 
+    public KubernetesAgentInstances(AgentClusterIndex agentClusterIndex) {
+        this(KubernetesClientFactory.instance(), new KubernetesInstanceFactory(), agentClusterIndex);
+    }
+
     public KubernetesAgentInstances(KubernetesClientFactory factory, KubernetesInstanceFactory kubernetesInstanceFactory) {
+        this(factory, kubernetesInstanceFactory, null);
+    }
+
+    public KubernetesAgentInstances(KubernetesClientFactory factory, KubernetesInstanceFactory kubernetesInstanceFactory, AgentClusterIndex agentClusterIndex) {
         this.factory = factory;
         this.kubernetesInstanceFactory = kubernetesInstanceFactory;
+        this.agentClusterIndex = agentClusterIndex;
     }
 
     @Override
     public KubernetesInstance create(CreateAgentRequest request, PluginSettings settings, PluginRequest pluginRequest, ConsoleLogAppender consoleLogAppender) {
         final Integer maxAllowedContainers = settings.getMaxPendingPods();
-        synchronized (instances) {
-            refreshAll(settings);
-            new SetupSemaphore(maxAllowedContainers, instances, semaphore).run();
-            consoleLogAppender.accept("Waiting to create agent pod.");
-            if (semaphore.tryAcquire()) {
-                return createKubernetesInstance(request, settings, pluginRequest, consoleLogAppender);
-            } else {
-                String message = format("[Create Agent Request] The number of pending kubernetes pods is currently at the maximum permissible limit ({0}). Total kubernetes pods ({1}). Not creating any more containers.", maxAllowedContainers, instances.size());
-                LOG.warn(message);
-                consoleLogAppender.accept(message);
+        refreshAll(settings);
+        consoleLogAppender.accept("Waiting to create agent pod.");
+        if (!reservePendingPod(maxAllowedContainers)) {
+            String message = format("[Create Agent Request] The number of pending kubernetes pods is currently at the maximum permissible limit ({0}). Total kubernetes pods ({1}). Not creating any more containers.", maxAllowedContainers, instances.size());
+            LOG.warn(message);
+            consoleLogAppender.accept(message);
+            return null;
+        }
+
+        try {
+            // Fails fast while the cluster's circuit breaker is open, rather than waiting for the request timeout.
+            AtomicReference<KubernetesInstance> created = new AtomicReference<>();
+            if (!callCluster("Create Agent Request", settings, null, 0, () -> created.set(createKubernetesInstance(request, settings, pluginRequest, consoleLogAppender)))) {
+                consoleLogAppender.accept(format("Failed to create agent pod, as cluster {0} is not answering. Will retry on a later request.", settings.getClusterUrl()));
                 return null;
             }
+            return created.get();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            // The created pod is registered by now, so it is counted as pending in place of the reservation.
+            releasePendingPod();
         }
     }
 
+    /**
+     * Reserves a pending pod slot without holding a lock while the pod is created. The reservation is released only
+     * after the created pod is registered, so that a pod is always counted either as a reservation or as a pending
+     * instance by a concurrent request.
+     */
+    boolean reservePendingPod(int maxPendingPods) {
+        while (true) {
+            int pending = pendingPods.get();
+            if (pending >= maxPendingPods) {
+                return false;
+            }
+            if (pendingPods.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void releasePendingPod() {
+        pendingPods.decrementAndGet();
+    }
+
+    int pendingPodCount() {
+        return pendingPods.get();
+    }
+
     private KubernetesInstance createKubernetesInstance(CreateAgentRequest request, PluginSettings settings, PluginRequest pluginRequest, ConsoleLogAppender consoleLogAppender) {
         JobIdentifier jobIdentifier = request.jobIdentifier();
-        if (isAgentCreatedForJob(jobIdentifier.getJobId())) {
+        if (podNamesByJobId.putIfAbsent(jobIdentifier.getJobId(), POD_BEING_CREATED) != null) {
             String message = format("[Create Agent Request] Request for creating an agent for Job Identifier [{0}] has already been scheduled. Skipping current request.", jobIdentifier);
             LOG.warn(message);
             consoleLogAppender.accept(message);
             return null;
         }
 
+        boolean registered = false;
         try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
             KubernetesInstance instance = kubernetesInstanceFactory.create(request, settings, client.get(), pluginRequest);
             consoleLogAppender.accept(String.format("Creating pod: %s", instance.podName()));
             register(instance);
+            registered = true;
             consoleLogAppender.accept(String.format("Agent pod %s created. Waiting for it to register to the GoCD server.", instance.podName()));
             return instance;
+        } finally {
+            if (!registered) {
+                podNamesByJobId.remove(jobIdentifier.getJobId(), POD_BEING_CREATED);
+            }
         }
     }
 
-    private boolean isAgentCreatedForJob(Long jobId) {
-        for (KubernetesInstance instance : instances.values()) {
-            if (instance.jobId().equals(jobId)) {
-                return true;
+    @Override
+    public boolean isAgentCreatedForJob(Long jobId) {
+        return podNamesByJobId.containsKey(jobId);
+    }
+
+    /**
+     * Terminates the pod of a single agent, such as once its job has completed. Fails fast while the cluster's circuit
+     * breaker is open, and a failure to reach the cluster counts against the breaker.
+     */
+    @Override
+    public void terminate(String agentId, PluginSettings settings) {
+        AtomicReference<Exception> podFailure = new AtomicReference<>();
+        boolean called;
+        try {
+            called = callCluster("Terminate Agent", settings, null, 0, () -> {
+                podFailure.set(terminate(List.of(agentId), settings).failures().get(agentId));
+                if (podFailure.get() instanceof KubernetesClientException e) {
+                    throw e;
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        Exception failure = podFailure.get();
+        if (!called && failure == null) {
+            throw new IllegalStateException(format("Not terminating pod {0}, as the circuit breaker of cluster {1} is open.", agentId, settings.getClusterUrl()));
+        }
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Terminates the pods of the given agents in parallel, with at most {@link PluginSettings#getPodTerminationConcurrency()}
+     * deletes in flight for this cluster across all callers. A pod that fails to terminate does not stop the others from being terminated, and remains known so that the
+     * termination can be retried. A pod that another caller is already terminating is reported as failed rather than
+     * deleted a second time.
+     */
+    public PodTerminationResult terminate(Collection<String> agentIds, PluginSettings settings) {
+        PodTerminationResult result = new PodTerminationResult();
+        List<KubernetesInstance> toTerminate = new ArrayList<>();
+        for (String agentId : agentIds) {
+            KubernetesInstance instance = instances.get(agentId);
+            if (instance == null) {
+                LOG.warn(format("Requested to terminate an instance that does not exist {0}.", agentId));
+                result.terminated(agentId);
+            } else if (!podsBeingTerminated.add(agentId)) {
+                result.failed(agentId, new IllegalStateException(format("Pod {0} is already being terminated.", agentId)));
+            } else {
+                toTerminate.add(instance);
             }
         }
 
-        return false;
+        try {
+            terminate(toTerminate, settings, result);
+        } finally {
+            for (KubernetesInstance instance : toTerminate) {
+                podsBeingTerminated.remove(instance.podName());
+            }
+        }
+        return result;
     }
 
-    @Override
-    public void terminate(String agentId, PluginSettings settings) {
-        KubernetesInstance instance = instances.get(agentId);
-        if (instance != null) {
+    private void terminate(List<KubernetesInstance> toTerminate, PluginSettings settings, PodTerminationResult result) {
+        if (!toTerminate.isEmpty()) {
             try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
-                instance.terminate(client.get());
+                podTerminator.terminate(client.get(), toTerminate, settings, isAddressableByJobId(toTerminate), result);
+            } catch (Exception e) {
+                LOG.error("Error occurred while trying to terminate kubernetes pods:", e);
+                for (KubernetesInstance instance : toTerminate) {
+                    if (!result.isTerminated(instance.podName())) {
+                        result.failed(instance.podName(), e);
+                    }
+                }
+            }
+        }
+
+        for (String podName : result.terminated()) {
+            forget(podName);
+        }
+    }
+
+    /**
+     * Runs a clean up of this cluster's agents once no other clean up of the cluster is running, so that the server
+     * ping and the reconciler take turns.
+     */
+    public void cleanup(ClusterCall cleanup) throws Exception {
+        cleanupLock.lock();
+        try {
+            cleanup.run();
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a clean up of this cluster's agents, unless another clean up of the cluster is already running.
+     *
+     * @return whether the clean up ran
+     */
+    public boolean tryCleanup(ClusterCall cleanup) throws Exception {
+        if (!cleanupLock.tryLock()) {
+            return false;
+        }
+        try {
+            cleanup.run();
+            return true;
+        } finally {
+            cleanupLock.unlock();
+        }
+    }
+
+    // Pods can be selected by their job ids only when each of those job ids belongs to exactly the pod being terminated.
+    private boolean isAddressableByJobId(List<KubernetesInstance> toTerminate) {
+        for (KubernetesInstance instance : toTerminate) {
+            if (!instance.podName().equals(podNamesByJobId.get(instance.jobId()))) {
+                return false;
             }
-        } else {
-            LOG.warn(format("Requested to terminate an instance that does not exist {0}.", agentId));
         }
-        instances.remove(agentId);
+        return true;
     }
 
     @Override
@@ -121,8 +310,9 @@ public class KubernetesAgentInstances implements AgentInstances<KubernetesInstan
         }
 
         LOG.warn(format("Terminating instances that did not register {0}.", toTerminate.instances.keySet()));
-        for (String podName : toTerminate.instances.keySet()) {
-            terminate(podName, settings);
+        PodTerminationResult result = terminate(toTerminate.instances.keySet(), settings);
+        if (!result.failures().isEmpty()) {
+            LOG.warn(format("Failed to terminate instances that did not register {0}, will retry on the next server ping.", result.failures().keySet()));
         }
     }
 
@@ -144,83 +334,264 @@ public class KubernetesAgentInstances implements AgentInstances<KubernetesInstan
 
     @Override
     public void refreshAll(PluginSettings properties) {
-        LOG.debug("[Refresh Instances] Syncing k8s elastic agent pod information for cluster {}.", properties);
-        PodList list = null;
+        lastRefreshedSettings = properties;
+        if (isPodInformerEnabled() && refreshFromPodInformer(properties)) {
+            return;
+        }
+
+        // Concurrent callers share a single listing: a caller only needs a listing that started after it arrived.
+        final long arrivedAfter = refreshesStarted.get();
         try {
-            try (KubernetesClientFactory.CachedClient client = factory.client(properties)) {
-                list = client.get().pods().list();
-            }
+            callCluster("Refresh Instances", properties, () -> {
+                synchronized (refreshLock) {
+                    if (lastCompletedRefresh > arrivedAfter) {
+                        LOG.debug("[Refresh Instances] Pod information was synced while waiting, skipping refresh for cluster {}.", properties);
+                        return;
+                    }
+
+                    long refresh = refreshesStarted.incrementAndGet();
+                    refreshFromApiServer(properties);
+                    lastCompletedRefresh = refresh;
+                }
+            });
         } catch (Exception e) {
             LOG.error("Error occurred while trying to list kubernetes pods:", e);
+        }
+    }
 
-            if (e.getCause() instanceof SocketTimeoutException) {
-                LOG.error("Error caused due to SocketTimeoutException. This generally happens due to stale kubernetes client. Clearing out existing kubernetes client and creating a new one!");
-                factory.clearOutExistingClient();
-                try (KubernetesClientFactory.CachedClient client = factory.client(properties)) {
-                    list = client.get().pods().list();
-                }
+    /**
+     * Runs a call against the API server of this cluster, unless the cluster's circuit breaker is open or
+     * {@link #MAX_CONCURRENT_CLUSTER_CALLS} calls to it are already in progress. A {@link KubernetesClientException}
+     * thrown by the call counts as a failure of the cluster and is logged rather than rethrown.
+     *
+     * @return whether the call ran and succeeded
+     */
+    public boolean callCluster(String operation, PluginSettings settings, ClusterCall call) throws Exception {
+        return callCluster(operation, settings, bulkhead, MAX_CONCURRENT_CLUSTER_CALLS, call);
+    }
+
+    /**
+     * Runs a clean up of this cluster's agents against its API server, like {@link #callCluster}, but with a permit
+     * that only clean ups use. Requests that hold up all {@link #MAX_CONCURRENT_CLUSTER_CALLS} calls to the cluster
+     * therefore never keep the server ping or the reconciler from cleaning it up, while its circuit breaker still
+     * applies.
+     *
+     * @return whether the call ran and succeeded
+     */
+    public boolean callClusterForCleanup(String operation, PluginSettings settings, ClusterCall call) throws Exception {
+        return callCluster(operation, settings, cleanupBulkhead, 1, call);
+    }
+
+    // Calls that a request needs to go through, such as creating its pod, are not bounded and pass no bulkhead.
+    private boolean callCluster(String operation, PluginSettings settings, Semaphore bulkhead, int maxCalls, ClusterCall call) throws Exception {
+        // Running out of permits is normal under load, and the callers that refresh share the refresh running already.
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            LOG.debug(format("[{0}] Skipping, as {1} calls to cluster {2} are already in progress.", operation, maxCalls, settings.getClusterUrl()));
+            return false;
+        }
+
+        try {
+            if (!circuitBreaker.allowRequest()) {
+                LOG.warn(format("[{0}] Skipping, as the circuit breaker of cluster {1} is open after {2} consecutive failures.", operation, settings.getClusterUrl(), circuitBreaker.getConsecutiveFailures()));
+                return false;
+            }
+
+            call.run();
+            circuitBreaker.recordSuccess();
+            return true;
+        } catch (KubernetesClientException e) {
+            circuitBreaker.recordFailure();
+            LOG.error(format("[{0}] Call to cluster {1} failed:", operation, settings.getClusterUrl()), e);
+            return false;
+        } finally {
+            if (bulkhead != null) {
+                bulkhead.release();
             }
         }
+    }
 
-        if (list == null) {
-            LOG.info("Did not find any running kubernetes pods.");
-            return;
+    public ClusterCircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    private void refreshFromApiServer(PluginSettings properties) {
+        LOG.debug("[Refresh Instances] Syncing k8s elastic agent pod information for cluster {}.", properties);
+        Set<String> knownBeforeListing = new HashSet<>(instances.keySet());
+        final List<Pod> pods;
+        try (KubernetesClientFactory.CachedClient client = factory.client(properties)) {
+            pods = listAgentPods(client.get());
         }
 
-        instances.clear();
-        for (Pod pod : list.getItems()) {
-            Map<String, String> podLabels = pod.getMetadata().getLabels();
-            if (podLabels != null) {
-                if (Constants.KUBERNETES_POD_KIND_LABEL_VALUE.equals(podLabels.get(Constants.KUBERNETES_POD_KIND_LABEL_KEY))) {
-                    register(kubernetesInstanceFactory.fromKubernetesPod(pod));
-                }
-            }
+        List<KubernetesInstance> refreshedInstances = new ArrayList<>();
+        for (Pod pod : pods) {
+            refreshedInstances.add(kubernetesInstanceFactory.fromKubernetesPod(pod));
         }
+        syncInstances(refreshedInstances, knownBeforeListing);
 
         LOG.info(String.format("[refresh-pod-state] Pod information successfully synced. All(Running/Pending) pod count is %d.", instances.size()));
     }
 
+    private List<Pod> listAgentPods(KubernetesClient client) {
+        return new KubernetesPodLister(Boolean.getBoolean(METADATA_ONLY_LISTING_SYSTEM_PROPERTY_KEY)).list(client);
+    }
+
+    private boolean refreshFromPodInformer(PluginSettings settings) {
+        synchronized (podInformerLock) {
+            if (podInformer != null && podInformer.isRunning()) {
+                LOG.debug("[Refresh Instances] Using k8s elastic agent pod information from pod informer for cluster {}.", settings);
+                return true;
+            }
+
+            if (podInformer != null && podInformer.isOnRetiredClient()) {
+                LOG.info("[Refresh Instances] Restarting pod informer for cluster {}, as its kubernetes client was recycled.", settings);
+            }
+            stopPodInformer();
+            try {
+                Set<String> knownBeforeSync = new HashSet<>(instances.keySet());
+                KubernetesPodInformer startedInformer = KubernetesPodInformer.start(this, kubernetesInstanceFactory, factory, settings);
+                syncInstances(startedInformer.instances(), knownBeforeSync);
+                podInformer = startedInformer;
+                LOG.info(String.format("[refresh-pod-state] Pod informer started and synced. All(Running/Pending) pod count is %d.", instances.size()));
+                return true;
+            } catch (Exception e) {
+                LOG.error("Error occurred while trying to start kubernetes pod informer, falling back to listing pods:", e);
+                return false;
+            }
+        }
+    }
+
+    private void stopPodInformer() {
+        if (podInformer != null) {
+            podInformer.close();
+            podInformer = null;
+        }
+    }
+
+    /**
+     * Stops watching the cluster and retires its pooled client. Used when the cluster profile this instance belongs to
+     * is no longer in use.
+     */
+    public void shutdown() {
+        synchronized (podInformerLock) {
+            stopPodInformer();
+        }
+        PluginSettings settings = lastRefreshedSettings;
+        if (settings != null) {
+            factory.retire(settings);
+        }
+        if (agentClusterIndex != null) {
+            for (String podName : instances.keySet()) {
+                agentClusterIndex.remove(podName, this);
+            }
+        }
+    }
+
+    private static boolean isPodInformerEnabled() {
+        return Boolean.getBoolean(POD_INFORMER_SYSTEM_PROPERTY_KEY);
+    }
+
+    /**
+     * Brings the instances in line with a listing of the cluster. Only instances that were already known before the
+     * listing started are removed when missing from it, so that pods created while listing are not forgotten.
+     */
+    private void syncInstances(List<KubernetesInstance> refreshedInstances, Set<String> knownBeforeListing) {
+        Set<String> listed = new HashSet<>();
+        for (KubernetesInstance instance : refreshedInstances) {
+            register(instance);
+            listed.add(instance.podName());
+        }
+
+        for (String podName : knownBeforeListing) {
+            if (!listed.contains(podName)) {
+                forget(podName);
+            }
+        }
+    }
+
     @Override
     public KubernetesInstance find(String agentId) {
         return instances.get(agentId);
     }
 
     public void register(KubernetesInstance instance) {
-        instances.put(instance.podName(), instance);
+        KubernetesInstance previous = instances.put(instance.podName(), instance);
+        podNamesByJobId.put(instance.jobId(), instance.podName());
+        if (agentClusterIndex != null) {
+            agentClusterIndex.add(instance.podName(), this);
+        }
+        pendingPods.addAndGet(pendingCount(instance) - pendingCount(previous));
+    }
+
+    void forget(String podName) {
+        KubernetesInstance instance = instances.remove(podName);
+        if (instance != null) {
+            podNamesByJobId.remove(instance.jobId(), podName);
+            pendingPods.addAndGet(-pendingCount(instance));
+            if (agentClusterIndex != null) {
+                agentClusterIndex.remove(podName, this);
+            }
+        }
+    }
+
+    private static int pendingCount(KubernetesInstance instance) {
+        return instance != null && instance.isPending() ? 1 : 0;
     }
 
     private KubernetesAgentInstances unregisteredAfterTimeout(PluginSettings settings, Agents knownAgents) {
         Duration period = settings.getAutoRegisterPeriod();
         KubernetesAgentInstances unregisteredInstances = new KubernetesAgentInstances();
-        try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
-            for (String instanceName : instances.keySet()) {
-                if (knownAgents.containsAgentWithId(instanceName)) {
-                    continue;
-                }
+        List<String> candidates = new ArrayList<>();
+        for (String instanceName : instances.keySet()) {
+            if (!knownAgents.containsAgentWithId(instanceName)) {
+                candidates.add(instanceName);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return unregisteredInstances;
+        }
 
-                Pod pod = getPod(client.get(), instanceName);
-                if (pod == null) {
-                    LOG.debug(String.format("[server-ping] Pod with name %s is already deleted.", instanceName));
-                    continue;
-                }
+        Map<String, Pod> pods = agentPodsByName(settings);
+        for (String instanceName : candidates) {
+            Pod pod = pods.get(instanceName);
+            if (pod == null) {
+                LOG.debug(String.format("[server-ping] Pod with name %s is already deleted.", instanceName));
+                continue;
+            }
 
-                Instant createdAt = Constants.KUBERNETES_POD_CREATION_TIME_FORMAT.parse(pod.getMetadata().getCreationTimestamp(), Instant::from);
+            Instant createdAt = Constants.KUBERNETES_POD_CREATION_TIME_FORMAT.parse(pod.getMetadata().getCreationTimestamp(), Instant::from);
 
-                if (clock.now().isAfter(createdAt.plus(period))) {
-                    unregisteredInstances.register(kubernetesInstanceFactory.fromKubernetesPod(pod));
-                }
+            if (clock.now().isAfter(createdAt.plus(period))) {
+                unregisteredInstances.register(kubernetesInstanceFactory.fromKubernetesPod(pod));
             }
         }
 
         return unregisteredInstances;
     }
 
-    private Pod getPod(KubernetesClient client, String instanceName) {
-        try {
-            return client.pods().withName(instanceName).get();
-        } catch (Exception e) {
-            LOG.warn(String.format("[server-ping] Failed to fetch pod[%s] information:", instanceName), e);
-            return null;
+    /**
+     * Resolves the current agent pods from the pod informer when it is running, or with a single listing otherwise.
+     */
+    private Map<String, Pod> agentPodsByName(PluginSettings settings) {
+        List<Pod> pods = podsFromPodInformer();
+        if (pods == null) {
+            try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
+                pods = listAgentPods(client.get());
+            } catch (Exception e) {
+                LOG.warn("[server-ping] Failed to list pod information:", e);
+                return Collections.emptyMap();
+            }
+        }
+
+        Map<String, Pod> podsByName = new HashMap<>();
+        for (Pod pod : pods) {
+            podsByName.put(pod.getMetadata().getName(), pod);
+        }
+        return podsByName;
+    }
+
+    private List<Pod> podsFromPodInformer() {
+        synchronized (podInformerLock) {
+            return podInformer != null && podInformer.isRunning() ? podInformer.pods() : null;
         }
     }
 
@@ -231,4 +602,9 @@ public class KubernetesAgentInstances implements AgentInstances<KubernetesInstan
     public boolean hasInstance(String elasticAgentId) {
         return find(elasticAgentId) != null;
     }
+
+    @FunctionalInterface
+    public interface ClusterCall {
+        void run() throws Exception;
+    }
 }
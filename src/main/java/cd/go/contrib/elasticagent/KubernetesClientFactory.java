@@ -20,21 +20,43 @@ import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientBuilder;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
 import static cd.go.contrib.elasticagent.utils.Util.isBlank;
 import static cd.go.contrib.elasticagent.utils.Util.setIfNotBlank;
 import static java.text.MessageFormat.format;
 
+/**
+ * Hands out leases on Kubernetes clients, keeping one client per cluster profile so that each cluster keeps its
+ * connections warm when the server talks to several clusters in turn. The least recently used client is evicted when
+ * more clusters are in use than the pool holds.
+ * <p>
+ * Clients are recycled in the background rather than on the request path. Every {@link #MAINTENANCE_INTERVAL_IN_SECONDS}
+ * seconds each pooled client is probed, and a client that is due for recycling or fails its probe is replaced by a new
+ * client, which is only swapped in once it has passed the probe itself. A client that is due for recycling but has not
+ * been leased for a whole recycle interval is removed from the pool instead, as its cluster profile has most likely
+ * changed or been deleted. A recycled, evicted or removed client is only closed once its last lease is released.
+ */
 public class KubernetesClientFactory {
-    private static final KubernetesClientFactory KUBERNETES_CLIENT_FACTORY = new KubernetesClientFactory();
+    private static final KubernetesClientFactory KUBERNETES_CLIENT_FACTORY = new KubernetesClientFactory().startMaintenance();
     public static final String CLIENT_RECYCLE_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.client.recycle.interval.in.minutes";
+    public static final String CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.client.pool.size";
+    static final int DEFAULT_CLIENT_POOL_SIZE = 10;
+    static final long MAINTENANCE_INTERVAL_IN_SECONDS = 60;
 
     private final Clock clock;
+    private final Predicate<KubernetesClient> healthProbe;
+    private final int maxPoolSize;
+    private final Map<PluginSettings, CachedClient> clients = new ConcurrentHashMap<>();
 
-    private volatile CachedClient client;
     private volatile long kubernetesClientRecycleIntervalInMinutes = -1;
 
     KubernetesClientFactory() {
@@ -43,7 +65,14 @@ public class KubernetesClientFactory {
 
     //used for testing..
     KubernetesClientFactory(Clock clock) {
+        this(clock, KubernetesClientFactory::respondsWithVersion);
+    }
+
+    //used for testing..
+    KubernetesClientFactory(Clock clock, Predicate<KubernetesClient> healthProbe) {
         this.clock = clock;
+        this.healthProbe = healthProbe;
+        this.maxPoolSize = Math.max(1, Integer.getInteger(CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY, DEFAULT_CLIENT_POOL_SIZE));
         System.setProperty(Config.KUBERNETES_AUTH_TRYKUBECONFIG_SYSTEM_PROPERTY, "false");
     }
 
@@ -51,30 +80,136 @@ public class KubernetesClientFactory {
         return KUBERNETES_CLIENT_FACTORY;
     }
 
-    public synchronized CachedClient client(PluginSettings clusterProfileConfigurations) {
-        clearOutClientOnTimer();
-        if (this.client != null && clusterProfileConfigurations.equals(this.client.clusterProfileConfigurations)) {
-            LOG.debug("Using previously created client.");
-            this.client.leases.incrementAndGet();
-            return this.client;
+    private KubernetesClientFactory startMaintenance() {
+        Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("k8s-client-maintenance"))
+                .scheduleWithFixedDelay(this::maintainClients, MAINTENANCE_INTERVAL_IN_SECONDS, MAINTENANCE_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        return this;
+    }
+
+    public CachedClient client(PluginSettings clusterProfileConfigurations) {
+        while (true) {
+            // Leasing a pooled client is a map lookup and a compare-and-set, only creating a client takes a lock.
+            CachedClient client = clients.get(clusterProfileConfigurations);
+            if (client != null && client.tryAcquire()) {
+                LOG.debug("Using previously created client.");
+                return client;
+            }
+
+            AtomicBoolean created = new AtomicBoolean();
+            client = clients.computeIfAbsent(clusterProfileConfigurations, settings -> {
+                created.set(true);
+                return createClientFor(settings, new ClusterRateLimiter(settings.getApiQps(), settings.getApiBurst()));
+            });
+
+            if (client.tryAcquire()) {
+                if (created.get()) {
+                    LOG.debug(format("Created a new client for {0}.", clusterProfileConfigurations.getClusterUrl()));
+                    evictLeastRecentlyUsedClients();
+                }
+                return client;
+            }
+
+            // The client was retired after it was looked up, so look up its replacement.
+            clients.remove(clusterProfileConfigurations, client);
         }
+    }
 
-        LOG.debug(format("Creating a new client because {0}.", (client == null) ? "client is null" : "cluster profile configurations has changed"));
-        clearOutExistingClient();
-        this.client = createClientFor(clusterProfileConfigurations);
-        LOG.debug("New client is created.");
+    int poolSize() {
+        return clients.size();
+    }
 
-        return this.client;
+    void maintainClients() {
+        for (Map.Entry<PluginSettings, CachedClient> entry : clients.entrySet()) {
+            try {
+                maintain(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                LOG.warn(format("Failed to maintain kubernetes client for {0}.", entry.getKey().getClusterUrl()), e);
+            }
+        }
     }
 
-    private void clearOutClientOnTimer() {
-        if (client != null && TimeUnit.MILLISECONDS.toMinutes(this.clock.now().toEpochMilli() - this.client.clientCreatedTime) > getKubernetesClientRecycleInterval()) {
-            LOG.info("Recycling kubernetes client on timer...");
-            clearOutExistingClient();
+    private void maintain(PluginSettings clusterProfileConfigurations, CachedClient client) {
+        if (isDueForRecycling(client) && isUnused(client)) {
+            LOG.info(format("Removing kubernetes client for {0}, as it has not been used since it was last recycled.", clusterProfileConfigurations.getClusterUrl()));
+            retire(clusterProfileConfigurations, client);
+            return;
+        }
+
+        String reason;
+        if (isDueForRecycling(client)) {
+            reason = "on timer";
+        } else if (!healthProbe.test(client.get())) {
+            reason = "as it failed its health probe";
+        } else {
+            return;
+        }
+
+        // The replacement shares the rate limiter, so that it keeps to the rate the API server has asked for.
+        CachedClient replacement = createClientFor(clusterProfileConfigurations, client.rateLimiter);
+        if (!healthProbe.test(replacement.get())) {
+            LOG.warn(format("Not recycling kubernetes client for {0} {1}, as its replacement failed its health probe too.", clusterProfileConfigurations.getClusterUrl(), reason));
+            replacement.retire();
+            return;
         }
+
+        if (clients.replace(clusterProfileConfigurations, client, replacement)) {
+            LOG.info(format("Recycled kubernetes client for {0} {1}.", clusterProfileConfigurations.getClusterUrl(), reason));
+            client.retire();
+        } else {
+            replacement.retire();
+        }
+    }
+
+    private boolean isDueForRecycling(CachedClient client) {
+        return TimeUnit.MILLISECONDS.toMinutes(this.clock.now().toEpochMilli() - client.clientCreatedTime) > getKubernetesClientRecycleInterval();
+    }
+
+    private boolean isUnused(CachedClient client) {
+        return client.leases() == 0 && TimeUnit.MILLISECONDS.toMinutes(this.clock.now().toEpochMilli() - client.lastUsedTime) > getKubernetesClientRecycleInterval();
     }
 
-    private CachedClient createClientFor(PluginSettings pluginSettings) {
+    /**
+     * Removes the client for the given cluster profile from the pool, such as once the profile has been changed or
+     * deleted. The client is closed once its last lease is released.
+     */
+    public void retire(PluginSettings clusterProfileConfigurations) {
+        CachedClient client = clients.get(clusterProfileConfigurations);
+        if (client != null) {
+            retire(clusterProfileConfigurations, client);
+        }
+    }
+
+    private void retire(PluginSettings clusterProfileConfigurations, CachedClient client) {
+        if (clients.remove(clusterProfileConfigurations, client)) {
+            client.retire();
+        }
+    }
+
+    private static boolean respondsWithVersion(KubernetesClient client) {
+        try {
+            return client.getKubernetesVersion() != null;
+        } catch (Exception e) {
+            LOG.debug("Kubernetes client health probe failed.", e);
+            return false;
+        }
+    }
+
+    private synchronized void evictLeastRecentlyUsedClients() {
+        while (clients.size() > maxPoolSize) {
+            Map.Entry<PluginSettings, CachedClient> leastRecentlyUsed = null;
+            for (Map.Entry<PluginSettings, CachedClient> entry : clients.entrySet()) {
+                if (leastRecentlyUsed == null || entry.getValue().lastUsedTime < leastRecentlyUsed.getValue().lastUsedTime) {
+                    leastRecentlyUsed = entry;
+                }
+            }
+            LOG.debug(format("Evicting least recently used kubernetes client for {0}.", leastRecentlyUsed.getKey().getClusterUrl()));
+            if (clients.remove(leastRecentlyUsed.getKey(), leastRecentlyUsed.getValue())) {
+                leastRecentlyUsed.getValue().retire();
+            }
+        }
+    }
+
+    private CachedClient createClientFor(PluginSettings pluginSettings, ClusterRateLimiter rateLimiter) {
         Config config = Config.autoConfigure(null);
 
         setIfNotBlank(config::setMasterUrl, pluginSettings.getClusterUrl());
@@ -83,13 +218,16 @@ public class KubernetesClientFactory {
         setIfNotBlank(config::setCaCertData, pluginSettings.getCaCertData());
         config.setRequestTimeout(pluginSettings.getClusterRequestTimeout());
 
-        return new CachedClient(new KubernetesClientBuilder().withConfig(config).build(), pluginSettings);
+        KubernetesClient client = new KubernetesClientBuilder()
+                .withConfig(config)
+                .withHttpClientBuilderConsumer(builder -> builder.addOrReplaceInterceptor(ClusterRateLimiter.NAME, rateLimiter))
+                .build();
+        return new CachedClient(client, pluginSettings, rateLimiter);
     }
 
-    public synchronized void clearOutExistingClient() {
-        if (this.client != null) {
-            this.client.closeIfUnused();
-            this.client = null;
+    void clearOutExistingClient() {
+        for (Map.Entry<PluginSettings, CachedClient> entry : clients.entrySet()) {
+            retire(entry.getKey(), entry.getValue());
         }
     }
 
@@ -117,17 +255,23 @@ public class KubernetesClientFactory {
     }
 
     public class CachedClient implements AutoCloseable {
+        // Marks a client that has been closed, so that no more leases can be acquired on it.
+        private static final int CLOSED = -1;
 
         private final KubernetesClient client;
         private final PluginSettings clusterProfileConfigurations;
-        private final AtomicInteger leases = new AtomicInteger(1);
+        private final ClusterRateLimiter rateLimiter;
+        private final AtomicInteger leases = new AtomicInteger();
         private final long clientCreatedTime;
-        private volatile boolean closed;
+        private volatile long lastUsedTime;
+        private volatile boolean retired;
 
-        CachedClient(KubernetesClient client, PluginSettings clusterProfileConfigurations) {
+        CachedClient(KubernetesClient client, PluginSettings clusterProfileConfigurations, ClusterRateLimiter rateLimiter) {
             this.client = client;
             this.clusterProfileConfigurations = clusterProfileConfigurations;
+            this.rateLimiter = rateLimiter;
             this.clientCreatedTime = KubernetesClientFactory.this.clock.now().toEpochMilli();
+            this.lastUsedTime = clientCreatedTime;
         }
 
         public KubernetesClient get() {
@@ -135,11 +279,18 @@ public class KubernetesClientFactory {
         }
 
         public int leases() {
-            return leases.get();
+            return Math.max(0, leases.get());
         }
 
         public boolean isClosed() {
-            return closed;
+            return leases.get() == CLOSED;
+        }
+
+        /**
+         * @return whether the client has been recycled or evicted, and is only kept open for its remaining leases
+         */
+        public boolean isRetired() {
+            return retired;
         }
 
         @Override
@@ -147,23 +298,37 @@ public class KubernetesClientFactory {
             releaseLease();
         }
 
-        private void releaseLease() {
-            // Close the client only if it is not the same as the one we have cached
-            if (leases.decrementAndGet() == 0 && this != KubernetesClientFactory.this.client && !closed) {
-                closeUnderlyingClient();
+        private boolean tryAcquire() {
+            while (true) {
+                int current = leases.get();
+                if (current == CLOSED || retired) {
+                    return false;
+                }
+                if (leases.compareAndSet(current, current + 1)) {
+                    lastUsedTime = KubernetesClientFactory.this.clock.now().toEpochMilli();
+                    return true;
+                }
             }
         }
 
-        public void closeIfUnused() {
-            if (leases() == 0 && !closed) {
-                closeUnderlyingClient();
+        private void releaseLease() {
+            // Close the client only once it has been recycled or evicted from the pool
+            if (leases.decrementAndGet() == 0 && retired) {
+                closeIfUnused();
             }
         }
 
-        private void closeUnderlyingClient() {
-            LOG.debug("Terminating existing kubernetes client...");
-            client.close();
-            closed = true;
+        private void retire() {
+            retired = true;
+            closeIfUnused();
+        }
+
+        private void closeIfUnused() {
+            // Only the caller that swaps the lease count from zero to closed closes the client.
+            if (leases.compareAndSet(0, CLOSED)) {
+                LOG.debug("Terminating existing kubernetes client...");
+                client.close();
+            }
         }
     }
 }
@@ -27,7 +27,12 @@ public record KubernetesInstance(
         String podName,
         Map<String, String> podAnnotations,
         Long jobId,
-        PodState state) {
+        PodState state,
+        String serverId) {
+
+    public KubernetesInstance(Instant createdAt, String environment, String podName, Map<String, String> podAnnotations, Long jobId, PodState state) {
+        this(createdAt, environment, podName, podAnnotations, jobId, state, null);
+    }
 
     public void terminate(KubernetesClient client) {
         client.pods().withName(this.podName).delete();
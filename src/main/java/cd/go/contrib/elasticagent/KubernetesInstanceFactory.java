@@ -16,6 +16,7 @@
 
 package cd.go.contrib.elasticagent;
 
+import cd.go.contrib.elasticagent.model.ServerInfo;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
 import cd.go.contrib.elasticagent.utils.Size;
 import com.fasterxml.jackson.core.JsonFactory;
@@ -34,6 +35,8 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
 import java.util.*;
@@ -47,6 +50,14 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.text.MessageFormat.format;
 
 public class KubernetesInstanceFactory {
+    static final int MAX_CACHED_POD_SPEC_TEMPLATES = 64;
+    static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+    static final ObjectMapper JSON_MAPPER = new ObjectMapper(new JsonFactory());
+    private static final MustacheFactory MUSTACHE_FACTORY = new DefaultMustacheFactory();
+    // Both are keyed by the SHA-256 of the template, and evicted least recently used first.
+    private static final Map<String, Mustache> COMPILED_POD_SPEC_TEMPLATES = lruCache(MAX_CACHED_POD_SPEC_TEMPLATES);
+    private static final Map<String, PodSpecPrototype> POD_SPEC_PROTOTYPES = lruCache(MAX_CACHED_POD_SPEC_TEMPLATES);
+
     public KubernetesInstance create(CreateAgentRequest request, PluginSettings settings, KubernetesClient client, PluginRequest pluginRequest) {
         String podSpecType = request.elasticProfileProperties().get(POD_SPEC_TYPE.getKey());
         if (podSpecType != null) {
@@ -103,7 +114,7 @@ public class KubernetesInstanceFactory {
 
         setContainerEnvVariables(elasticAgentPod, request, settings, pluginRequest);
         setAnnotations(elasticAgentPod, request);
-        setLabels(elasticAgentPod, request);
+        setLabels(elasticAgentPod, request, serverId(pluginRequest));
     }
 
     private ResourceRequirements getPodResources(CreateAgentRequest request) {
@@ -129,9 +140,9 @@ public class KubernetesInstanceFactory {
         return resources;
     }
 
-    private static void setLabels(Pod pod, CreateAgentRequest request) {
+    private static void setLabels(Pod pod, CreateAgentRequest request, String serverId) {
         Map<String, String> existingLabels = (pod.getMetadata().getLabels() != null) ? pod.getMetadata().getLabels() : new HashMap<>();
-        existingLabels.putAll(labelsFrom(request));
+        existingLabels.putAll(labelsFrom(request, serverId));
         pod.getMetadata().setLabels(existingLabels);
     }
 
@@ -158,7 +169,8 @@ public class KubernetesInstanceFactory {
             }
             String environment = metadata.getLabels().get(ENVIRONMENT_LABEL_KEY);
             Long jobId = Long.valueOf(metadata.getLabels().get(JOB_ID_LABEL_KEY));
-            kubernetesInstance = new KubernetesInstance(createdAt, environment, metadata.getName(), metadata.getAnnotations(), jobId, PodState.fromPod(elasticAgentPod));
+            String serverId = metadata.getLabels().get(SERVER_ID_LABEL_KEY);
+            kubernetesInstance = new KubernetesInstance(createdAt, environment, metadata.getName(), metadata.getAnnotations(), jobId, PodState.fromPod(elasticAgentPod), serverId);
         } catch (DateTimeParseException e) {
             throw new RuntimeException(e);
         }
@@ -167,7 +179,7 @@ public class KubernetesInstanceFactory {
 
     private static List<EnvVar> environmentFrom(CreateAgentRequest request, PluginSettings settings, String podName, PluginRequest pluginRequest) {
         ArrayList<EnvVar> env = new ArrayList<>();
-        String goServerUrl = isBlank(settings.getGoServerUrl()) ? pluginRequest.getSeverInfo().getSecureSiteUrl() : settings.getGoServerUrl();
+        String goServerUrl = isBlank(settings.getGoServerUrl()) ? pluginRequest.cachedServerInfo().getSecureSiteUrl() : settings.getGoServerUrl();
         env.add(new EnvVar("GO_EA_SERVER_URL", goServerUrl, null));
         String environment = request.elasticProfileProperties().get("Environment");
         if (!isBlank(environment)) {
@@ -178,6 +190,18 @@ public class KubernetesInstanceFactory {
         return new ArrayList<>(env);
     }
 
+    // Pods are labelled with the id of the server that created them, so that deleting pods by their job ids never
+    // selects the pods of another server that uses the same namespace.
+    private static String serverId(PluginRequest pluginRequest) {
+        try {
+            ServerInfo serverInfo = pluginRequest.cachedServerInfo();
+            return serverInfo != null ? serverInfo.getServerId() : null;
+        } catch (ServerRequestFailedException e) {
+            LOG.warn("[Create Agent] Failed to get the server id, creating the pod without a server id label.", e);
+            return null;
+        }
+    }
+
     private static void setContainerEnvVariables(Pod pod, CreateAgentRequest request, PluginSettings settings, PluginRequest pluginRequest) {
         for (Container container : pod.getSpec().getContainers()) {
             List<EnvVar> existingEnv = (container.getEnv() != null) ? container.getEnv() : new ArrayList<>();
@@ -196,11 +220,14 @@ public class KubernetesInstanceFactory {
         return envVars;
     }
 
-    private static HashMap<String, String> labelsFrom(CreateAgentRequest request) {
+    private static HashMap<String, String> labelsFrom(CreateAgentRequest request, String serverId) {
         HashMap<String, String> labels = new HashMap<>();
 
         labels.put(CREATED_BY_LABEL_KEY, PLUGIN_ID);
         labels.put(JOB_ID_LABEL_KEY, valueOf(request.jobIdentifier().getJobId()));
+        if (!isBlank(serverId)) {
+            labels.put(SERVER_ID_LABEL_KEY, serverId);
+        }
 
         if (!isBlank(request.environment())) {
             labels.put(ENVIRONMENT_LABEL_KEY, request.environment());
@@ -225,13 +252,11 @@ public class KubernetesInstanceFactory {
     }
 
     private KubernetesInstance createUsingPodYaml(CreateAgentRequest request, PluginSettings settings, KubernetesClient client, PluginRequest pluginRequest) {
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
         String podYaml = request.elasticProfileProperties().get(POD_CONFIGURATION.getKey());
-        String templatizedPodYaml = getTemplatedPodSpec(podYaml);
 
         Pod elasticAgentPod = new Pod();
         try {
-            elasticAgentPod = mapper.readValue(templatizedPodYaml, Pod.class);
+            elasticAgentPod = buildPod(podYaml, YAML_MAPPER);
             setPodNameIfNecessary(elasticAgentPod, podYaml);
         } catch (IOException e) {
             //ignore error here, handle this inside validate profile!
@@ -249,10 +274,10 @@ public class KubernetesInstanceFactory {
         Pod elasticAgentPod = new Pod();
         ObjectMapper mapper;
         if ("json".equalsIgnoreCase(fileType)) {
-            mapper = new ObjectMapper(new JsonFactory());
+            mapper = JSON_MAPPER;
         }
         else if ("yaml".equalsIgnoreCase(fileType)) {
-            mapper = new ObjectMapper(new YAMLFactory());
+            mapper = YAML_MAPPER;
         }
         else {
             throw new IllegalArgumentException("RemoteFileType value should be one of `json` or `yaml`.");
@@ -263,8 +288,7 @@ public class KubernetesInstanceFactory {
             Files.copy(downloadStream, podSpecFile);
             LOG.debug(format("Finished downloading {0} to {1}", fileToDownload, podSpecFile));
             String spec = Files.readString(podSpecFile, UTF_8);
-            String templatedPodSpec = getTemplatedPodSpec(spec);
-            elasticAgentPod = mapper.readValue(templatedPodSpec, Pod.class);
+            elasticAgentPod = buildPod(spec, mapper);
             setPodNameIfNecessary(elasticAgentPod, spec);
             Files.deleteIfExists(podSpecFile);
             LOG.debug(format("Deleted {0}", podSpecFile));
@@ -285,17 +309,77 @@ public class KubernetesInstanceFactory {
 
 
     public static String getTemplatedPodSpec(String podSpec) {
+        return render(podSpec, UUID.randomUUID().toString(), UUID.randomUUID().toString());
+    }
+
+    // Only the postfixes differ between pods of a profile, so its template is rendered and parsed once into a prototype.
+    static Pod buildPod(String podSpec, ObjectMapper mapper) throws IOException {
+        String key = sha256(podSpec) + ":" + mapper.getFactory().getFormatName();
+        PodSpecPrototype prototype;
+        synchronized (POD_SPEC_PROTOTYPES) {
+            prototype = POD_SPEC_PROTOTYPES.get(key);
+        }
+
+        if (prototype == null) {
+            String rendered = render(podSpec, PodSpecPrototype.POD_POSTFIX_SENTINEL, PodSpecPrototype.CONTAINER_POSTFIX_SENTINEL);
+            prototype = PodSpecPrototype.parse(rendered, mapper);
+            synchronized (POD_SPEC_PROTOTYPES) {
+                POD_SPEC_PROTOTYPES.put(key, prototype);
+            }
+        }
+        return prototype.instantiate(UUID.randomUUID().toString(), UUID.randomUUID().toString());
+    }
+
+    private static String render(String podSpec, String podPostfix, String containerPostfix) {
         StringWriter writer = new StringWriter();
-        MustacheFactory mf = new DefaultMustacheFactory();
-        Mustache mustache = mf.compile(new StringReader(podSpec), "templatePod");
-        mustache.execute(writer, KubernetesInstanceFactory.getJinJavaContext());
+        compiledPodSpecTemplate(podSpec).execute(writer, KubernetesInstanceFactory.getJinJavaContext(podPostfix, containerPostfix));
         return writer.toString();
     }
 
-    private static Map<String, String> getJinJavaContext() {
+    // Pod specs only change with their elastic profile, so a template is compiled once and rendered for every pod.
+    static Mustache compiledPodSpecTemplate(String podSpec) {
+        String key = sha256(podSpec);
+        synchronized (COMPILED_POD_SPEC_TEMPLATES) {
+            Mustache mustache = COMPILED_POD_SPEC_TEMPLATES.get(key);
+            if (mustache != null) {
+                return mustache;
+            }
+        }
+
+        Mustache mustache = MUSTACHE_FACTORY.compile(new StringReader(podSpec), "templatePod");
+        synchronized (COMPILED_POD_SPEC_TEMPLATES) {
+            COMPILED_POD_SPEC_TEMPLATES.put(key, mustache);
+        }
+        return mustache;
+    }
+
+    static int compiledPodSpecTemplateCount() {
+        synchronized (COMPILED_POD_SPEC_TEMPLATES) {
+            return COMPILED_POD_SPEC_TEMPLATES.size();
+        }
+    }
+
+    private static <V> Map<String, V> lruCache(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static String sha256(String podSpec) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(podSpec.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, String> getJinJavaContext(String podPostfix, String containerPostfix) {
         Map<String, String> context = new HashMap<>();
-        context.put(POD_POSTFIX, UUID.randomUUID().toString());
-        context.put(CONTAINER_POSTFIX, UUID.randomUUID().toString());
+        context.put(POD_POSTFIX, podPostfix);
+        context.put(CONTAINER_POSTFIX, containerPostfix);
         context.put(GOCD_AGENT_IMAGE, "gocd/gocd-agent-wolfi");
         context.put(LATEST_VERSION, "v25.4.0");
         return context;
@@ -31,23 +31,36 @@ import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static cd.go.contrib.elasticagent.Constants.PLUGIN_IDENTIFIER;
 
 @Extension
 public class KubernetesPlugin implements GoPlugin {
     public static final Logger LOG = Logger.getLoggerFor(KubernetesPlugin.class);
+    // Clusters are refreshed in parallel, so that a server ping takes about as long as its slowest cluster.
+    private static final ExecutorService CLUSTER_REFRESH_EXECUTOR = Executors.newCachedThreadPool(Util.daemonThreadFactory("k8s-cluster-refresh"));
 
     private PluginRequest pluginRequest;
     private Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances;
+    private AgentClusterIndex agentClusterIndex;
+    private AgentReconciler agentReconciler;
 
     @Override
     public void initializeGoApplicationAccessor(GoApplicationAccessor accessor) {
         pluginRequest = new PluginRequest(accessor);
-        clusterSpecificAgentInstances = new HashMap<>();
+        clusterSpecificAgentInstances = new ConcurrentHashMap<>();
+        agentClusterIndex = new AgentClusterIndex();
+        Duration reconcileInterval = AgentReconciler.intervalFromSystemProperty();
+        if (reconcileInterval != null) {
+            agentReconciler = new AgentReconciler(pluginRequest, reconcileInterval);
+        }
     }
 
     @Load
@@ -83,28 +96,29 @@ public class KubernetesPlugin implements GoPlugin {
                 case REQUEST_SHOULD_ASSIGN_WORK:
                     ShouldAssignWorkRequest shouldAssignWorkRequest = ShouldAssignWorkRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = shouldAssignWorkRequest.clusterProfileProperties();
-                    return shouldAssignWorkRequest.executor(getAgentInstancesFor(clusterProfileProperties)).execute();
+                    return shouldAssignWorkRequest.executor(getAgentInstancesFor(shouldAssignWorkRequest.agent().elasticAgentId(), clusterProfileProperties)).execute();
                 case REQUEST_SERVER_PING:
+                    pluginRequest.prefetchServerInfo();
                     ServerPingRequest serverPingRequest = ServerPingRequest.fromJSON(request.requestBody());
                     List<ClusterProfileProperties> listOfClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
                     refreshInstancesForAllClusters(listOfClusterProfileProperties);
-                    return serverPingRequest.executor(clusterSpecificAgentInstances, pluginRequest).execute();
+                    return serverPingRequest.executor(clusterSpecificAgentInstances, agentClusterIndex, pluginRequest).execute();
                 case REQUEST_JOB_COMPLETION:
                     JobCompletionRequest jobCompletionRequest = JobCompletionRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = jobCompletionRequest.clusterProfileProperties();
-                    return jobCompletionRequest.executor(getAgentInstancesFor(clusterProfileProperties), pluginRequest).execute();
+                    return jobCompletionRequest.executor(getAgentInstancesFor(jobCompletionRequest.getElasticAgentId(), clusterProfileProperties), pluginRequest).execute();
                 case REQUEST_CLUSTER_STATUS_REPORT:
                     ClusterStatusReportRequest clusterStatusReportRequest = ClusterStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = clusterStatusReportRequest.clusterProfileProperties();
-                    KubernetesClientFactory.instance().clearOutExistingClient();
                     refreshInstancesForCluster(clusterProfileProperties);
-                    return clusterStatusReportRequest.executor().execute();
+                    return clusterStatusReportRequest.executor(clusterSpecificAgentInstances.get(clusterProfileProperties.uuid()).circuitBreaker()).execute();
                 case REQUEST_ELASTIC_AGENT_STATUS_REPORT:
                     AgentStatusReportRequest statusReportRequest = AgentStatusReportRequest.fromJSON(request.requestBody());
                     clusterProfileProperties = statusReportRequest.clusterProfileProperties();
                     refreshInstancesForCluster(clusterProfileProperties);
                     return statusReportRequest.executor().execute();
                 case REQUEST_CLUSTER_PROFILE_CHANGED:
+                    pluginRequest.invalidateServerInfo();
                     return new DefaultGoPluginApiResponse(200);
                 case REQUEST_MIGRATE_CONFIGURATION:
                     return MigrateConfigurationRequest.fromJSON(request.requestBody()).executor().execute();
@@ -120,11 +134,36 @@ public class KubernetesPlugin implements GoPlugin {
     }
 
     private void refreshInstancesForAllClusters(List<ClusterProfileProperties> listOfClusterProfileProperties) {
-        for (ClusterProfileProperties clusterProfileProperties : listOfClusterProfileProperties) {
-            refreshInstancesForCluster(clusterProfileProperties);
+        CompletableFuture<?>[] refreshes = listOfClusterProfileProperties.stream()
+                .map(clusterProfileProperties -> CompletableFuture.runAsync(() -> refreshInstancesForCluster(clusterProfileProperties), CLUSTER_REFRESH_EXECUTOR))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(refreshes).join();
+        shutdownRemovedClusters(listOfClusterProfileProperties);
+    }
+
+    // The server ping carries every cluster profile, so any other cluster was either changed or deleted. Shutting it
+    // down also retires its pooled client.
+    private void shutdownRemovedClusters(List<ClusterProfileProperties> listOfClusterProfileProperties) {
+        Set<String> knownClusters = listOfClusterProfileProperties.stream().map(ClusterProfileProperties::uuid).collect(Collectors.toSet());
+        Iterator<Map.Entry<String, KubernetesAgentInstances>> iterator = clusterSpecificAgentInstances.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, KubernetesAgentInstances> entry = iterator.next();
+            if (!knownClusters.contains(entry.getKey())) {
+                entry.getValue().shutdown();
+                iterator.remove();
+                if (agentReconciler != null) {
+                    agentReconciler.untrack(entry.getKey());
+                }
+            }
         }
     }
 
+    // Requests about a known agent are routed by the agent's id, which saves hashing the cluster profile to find its cluster.
+    private AgentInstances<KubernetesInstance> getAgentInstancesFor(String elasticAgentId, ClusterProfileProperties clusterProfileProperties) {
+        KubernetesAgentInstances agentInstances = agentClusterIndex.clusterOf(elasticAgentId);
+        return agentInstances != null ? agentInstances : getAgentInstancesFor(clusterProfileProperties);
+    }
+
     private AgentInstances<KubernetesInstance> getAgentInstancesFor(ClusterProfileProperties clusterProfileProperties) {
         KubernetesAgentInstances agentInstances = clusterSpecificAgentInstances.get(clusterProfileProperties.uuid());
 
@@ -138,10 +177,11 @@ public class KubernetesPlugin implements GoPlugin {
     }
 
     private void refreshInstancesForCluster(ClusterProfileProperties clusterProfileProperties) {
-        KubernetesAgentInstances kubernetesInstances = clusterSpecificAgentInstances.getOrDefault(clusterProfileProperties.uuid(), new KubernetesAgentInstances());
+        KubernetesAgentInstances kubernetesInstances = clusterSpecificAgentInstances.computeIfAbsent(clusterProfileProperties.uuid(), uuid -> new KubernetesAgentInstances(agentClusterIndex));
         kubernetesInstances.refreshAll(clusterProfileProperties);
-
-        clusterSpecificAgentInstances.put(clusterProfileProperties.uuid(), kubernetesInstances);
+        if (agentReconciler != null) {
+            agentReconciler.track(clusterProfileProperties, kubernetesInstances);
+        }
     }
 
     @Override
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+
+/**
+ * Keeps the pods of a single cluster in sync with {@link KubernetesAgentInstances} using a watch, so that the
+ * instances can be read from memory instead of listing all pods on every request. The underlying informer only
+ * lists pods on its initial sync and whenever the watch expires.
+ * <p>
+ * The informer holds a lease on its cluster's client for as long as it runs. Once the client factory recycles that
+ * client, the informer is rebuilt on the replacement on the next refresh.
+ */
+class KubernetesPodInformer implements ResourceEventHandler<Pod>, AutoCloseable {
+    static final long RESYNC_PERIOD_IN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final KubernetesAgentInstances agentInstances;
+    private final KubernetesInstanceFactory kubernetesInstanceFactory;
+    private final KubernetesClientFactory.CachedClient client;
+    private SharedIndexInformer<Pod> informer;
+
+    private KubernetesPodInformer(KubernetesAgentInstances agentInstances, KubernetesInstanceFactory kubernetesInstanceFactory, KubernetesClientFactory.CachedClient client) {
+        this.agentInstances = agentInstances;
+        this.kubernetesInstanceFactory = kubernetesInstanceFactory;
+        this.client = client;
+    }
+
+    static KubernetesPodInformer start(KubernetesAgentInstances agentInstances, KubernetesInstanceFactory kubernetesInstanceFactory, KubernetesClientFactory factory, PluginSettings settings) {
+        // The lease is held for as long as the informer runs, so that the client is not closed underneath the watch.
+        KubernetesClientFactory.CachedClient client = factory.client(settings);
+        KubernetesPodInformer podInformer = new KubernetesPodInformer(agentInstances, kubernetesInstanceFactory, client);
+        try {
+            podInformer.informer = client.get().pods()
+                    .withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)
+                    .inform(podInformer, RESYNC_PERIOD_IN_MILLIS);
+        } catch (RuntimeException e) {
+            client.close();
+            throw e;
+        }
+        return podInformer;
+    }
+
+    // An informer whose client has been recycled counts as stopped, so that it is rebuilt on the replacement client
+    // rather than keeping the retired client open.
+    boolean isRunning() {
+        return informer != null && informer.isRunning() && informer.hasSynced() && !isOnRetiredClient();
+    }
+
+    boolean isOnRetiredClient() {
+        return client.isRetired();
+    }
+
+    List<Pod> pods() {
+        return informer.getStore().list();
+    }
+
+    List<KubernetesInstance> instances() {
+        List<KubernetesInstance> instances = new ArrayList<>();
+        for (Pod pod : pods()) {
+            KubernetesInstance instance = toInstance(pod);
+            if (instance != null) {
+                instances.add(instance);
+            }
+        }
+        return instances;
+    }
+
+    @Override
+    public void onAdd(Pod pod) {
+        KubernetesInstance instance = toInstance(pod);
+        if (instance != null) {
+            agentInstances.register(instance);
+        }
+    }
+
+    @Override
+    public void onUpdate(Pod oldPod, Pod newPod) {
+        onAdd(newPod);
+    }
+
+    @Override
+    public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+        agentInstances.forget(pod.getMetadata().getName());
+    }
+
+    @Override
+    public void close() {
+        if (informer != null) {
+            informer.stop();
+        }
+        client.close();
+    }
+
+    private KubernetesInstance toInstance(Pod pod) {
+        try {
+            return kubernetesInstanceFactory.fromKubernetesPod(pod);
+        } catch (Exception e) {
+            LOG.warn(String.format("[pod-informer] Ignoring pod %s with unexpected metadata.", pod.getMetadata().getName()), e);
+            return null;
+        }
+    }
+}
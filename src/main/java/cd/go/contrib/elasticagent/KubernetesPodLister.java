@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import io.fabric8.kubernetes.api.model.*;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.http.HttpClient;
+import io.fabric8.kubernetes.client.http.HttpRequest;
+import io.fabric8.kubernetes.client.http.HttpResponse;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static cd.go.contrib.elasticagent.utils.Util.isBlank;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Lists the elastic agent pods of a cluster. Pods are selected on the API server by their kind label and fetched a page
+ * at a time, so that the size of each response depends on the number of agents rather than the number of pods in the
+ * namespace.
+ * <p>
+ * In metadata-only mode the API server is asked for {@link PartialObjectMetadataList} responses instead of full pods,
+ * which leaves out the container specs and status that {@link KubernetesInstanceFactory#fromKubernetesPod(Pod)} does
+ * not need. The only status it needs is whether a pod is running, which is projected using a second metadata-only
+ * list restricted to running pods. Partial object metadata carries no status at all, and the status column of a table
+ * listing shows container reasons such as {@code CrashLoopBackOff} in place of the phase, so the phase cannot be
+ * derived from a single metadata-only listing.
+ */
+class KubernetesPodLister {
+    static final long PAGE_SIZE = 500;
+    private static final String PARTIAL_OBJECT_METADATA_LIST = "application/json;as=PartialObjectMetadataList;g=meta.k8s.io;v=v1";
+    private static final String RUNNING_PHASE = "Running";
+
+    private final boolean metadataOnly;
+
+    KubernetesPodLister(boolean metadataOnly) {
+        this.metadataOnly = metadataOnly;
+    }
+
+    List<Pod> list(KubernetesClient client) {
+        return metadataOnly ? listMetadata(client) : listPods(client);
+    }
+
+    private List<Pod> listPods(KubernetesClient client) {
+        List<Pod> pods = new ArrayList<>();
+        String continueToken = null;
+        do {
+            PodList page = client.pods()
+                    .withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)
+                    .list(new ListOptionsBuilder().withLimit(PAGE_SIZE).withContinue(continueToken).build());
+            pods.addAll(page.getItems());
+            continueToken = page.getMetadata() != null ? page.getMetadata().getContinue() : null;
+        } while (!isBlank(continueToken));
+        return pods;
+    }
+
+    private List<Pod> listMetadata(KubernetesClient client) {
+        List<PartialObjectMetadata> allPods = listPartialObjectMetadata(client, null);
+        if (allPods.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Set<String> runningPods = new HashSet<>();
+        for (PartialObjectMetadata runningPod : listPartialObjectMetadata(client, "status.phase=" + RUNNING_PHASE)) {
+            runningPods.add(runningPod.getMetadata().getName());
+        }
+
+        List<Pod> pods = new ArrayList<>(allPods.size());
+        for (PartialObjectMetadata metadata : allPods) {
+            Pod pod = new Pod();
+            pod.setMetadata(metadata.getMetadata());
+            if (runningPods.contains(metadata.getMetadata().getName())) {
+                pod.setStatus(new PodStatusBuilder().withPhase(RUNNING_PHASE).build());
+            }
+            pods.add(pod);
+        }
+        return pods;
+    }
+
+    private List<PartialObjectMetadata> listPartialObjectMetadata(KubernetesClient client, String fieldSelector) {
+        HttpClient httpClient = client.getHttpClient();
+        long timeout = client.getConfiguration().getRequestTimeout();
+        List<PartialObjectMetadata> items = new ArrayList<>();
+        String continueToken = null;
+        do {
+            HttpRequest request = httpClient.newHttpRequestBuilder()
+                    .uri(podsUrl(client, fieldSelector, continueToken))
+                    .header("Accept", PARTIAL_OBJECT_METADATA_LIST)
+                    .build();
+            HttpResponse<String> response = send(httpClient, request, timeout);
+            if (!response.isSuccessful()) {
+                throw new KubernetesClientException(String.format("Failed to list pod metadata: %s", response.body()), response.code(), null);
+            }
+
+            PartialObjectMetadataList page = Serialization.unmarshal(response.body(), PartialObjectMetadataList.class);
+            items.addAll(page.getItems());
+            continueToken = page.getMetadata() != null ? page.getMetadata().getContinue() : null;
+        } while (!isBlank(continueToken));
+        return items;
+    }
+
+    private static HttpResponse<String> send(HttpClient httpClient, HttpRequest request, long timeout) {
+        try {
+            return httpClient.sendAsync(request, String.class).get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KubernetesClientException("Interrupted while listing pod metadata", e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KubernetesClientException("Failed to list pod metadata", e);
+        }
+    }
+
+    private static String podsUrl(KubernetesClient client, String fieldSelector, String continueToken) {
+        StringBuilder url = new StringBuilder(client.getMasterUrl().toString());
+        if (url.charAt(url.length() - 1) != '/') {
+            url.append('/');
+        }
+        url.append("api/v1/");
+        if (!isBlank(client.getNamespace())) {
+            url.append("namespaces/").append(encode(client.getNamespace())).append('/');
+        }
+        url.append("pods?labelSelector=").append(encode(Constants.KUBERNETES_POD_KIND_LABEL_KEY + "=" + Constants.KUBERNETES_POD_KIND_LABEL_VALUE));
+        url.append("&limit=").append(PAGE_SIZE);
+        if (fieldSelector != null) {
+            url.append("&fieldSelector=").append(encode(fieldSelector));
+        }
+        if (!isBlank(continueToken)) {
+            url.append("&continue=").append(encode(continueToken));
+        }
+        return url.toString();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, UTF_8);
+    }
+}
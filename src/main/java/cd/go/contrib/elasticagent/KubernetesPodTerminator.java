@@ -0,0 +1,168 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import io.fabric8.kubernetes.api.model.StatusDetails;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
+import static cd.go.contrib.elasticagent.utils.Util.isBlank;
+
+/**
+ * Deletes the agent pods of a single cluster in parallel, with at most the configured number of deletes in flight for
+ * the cluster, however many requests terminate its pods at the same time.
+ * <p>
+ * When every pod can be addressed by its job id label and carries the id of the server that created it, all of them
+ * are deleted with a single label selector delete instead. Only the pods that the API server reports as deleted count
+ * as terminated, the others are deleted one by one.
+ */
+class KubernetesPodTerminator {
+    // Keeps the label selector of a single delete to a reasonable length.
+    static final int MAX_PODS_PER_LABEL_SELECTOR_DELETE = 200;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(daemonThreadFactory("k8s-pod-terminator"));
+
+    private int concurrency;
+    private Semaphore deletesInFlight;
+
+    void terminate(KubernetesClient client, List<KubernetesInstance> instances, PluginSettings settings, boolean addressableByJobId, PodTerminationResult result) {
+        Semaphore permits = permitsFor(settings.getPodTerminationConcurrency());
+        List<KubernetesInstance> toDelete = instances;
+        String serverId = sharedServerId(instances);
+        if (addressableByJobId && serverId != null && instances.size() > 1 && instances.size() <= MAX_PODS_PER_LABEL_SELECTOR_DELETE) {
+            Set<String> deleted = deleteByJobIds(client, instances, serverId, permits);
+            toDelete = new ArrayList<>();
+            for (KubernetesInstance instance : instances) {
+                if (deleted.contains(instance.podName())) {
+                    result.terminated(instance.podName());
+                } else {
+                    toDelete.add(instance);
+                }
+            }
+        }
+
+        Queue<KubernetesInstance> remaining = new ConcurrentLinkedQueue<>(toDelete);
+        int workers = Math.min(settings.getPodTerminationConcurrency(), toDelete.size());
+        if (workers <= 1) {
+            deleteEach(client, remaining, permits, result);
+            return;
+        }
+
+        List<Future<?>> running = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            running.add(EXECUTOR.submit(() -> deleteEach(client, remaining, permits, result)));
+        }
+
+        try {
+            for (Future<?> worker : running) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            KubernetesInstance instance;
+            while ((instance = remaining.poll()) != null) {
+                result.failed(instance.podName(), e);
+            }
+        } catch (ExecutionException e) {
+            // Failures are recorded per pod by the workers, so this is not expected.
+            LOG.error("[pod-terminator] Unexpected error while terminating pods:", e);
+        }
+    }
+
+    // Deletes still in flight under an older concurrency finish against the semaphore they were started with.
+    private synchronized Semaphore permitsFor(int concurrency) {
+        int permits = Math.max(1, concurrency);
+        if (deletesInFlight == null || this.concurrency != permits) {
+            this.concurrency = permits;
+            this.deletesInFlight = new Semaphore(permits);
+        }
+        return deletesInFlight;
+    }
+
+    private static String sharedServerId(List<KubernetesInstance> instances) {
+        String serverId = instances.isEmpty() ? null : instances.get(0).serverId();
+        for (KubernetesInstance instance : instances) {
+            if (isBlank(instance.serverId()) || !instance.serverId().equals(serverId)) {
+                return null;
+            }
+        }
+        return serverId;
+    }
+
+    private static Set<String> deleteByJobIds(KubernetesClient client, List<KubernetesInstance> instances, String serverId, Semaphore permits) {
+        String[] jobIds = instances.stream().map(instance -> String.valueOf(instance.jobId())).toArray(String[]::new);
+        Set<String> deleted = new HashSet<>();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return deleted;
+        }
+
+        try {
+            List<StatusDetails> deletedPods = client.pods()
+                    .withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)
+                    .withLabel(Constants.SERVER_ID_LABEL_KEY, serverId)
+                    .withLabelIn(Constants.JOB_ID_LABEL_KEY, jobIds)
+                    .delete();
+            for (StatusDetails deletedPod : deletedPods) {
+                deleted.add(deletedPod.getName());
+            }
+            if (deleted.size() < instances.size()) {
+                LOG.debug(String.format("[pod-terminator] Deleted %d of %d pods by job id, deleting the others one by one.", deleted.size(), instances.size()));
+            }
+        } catch (Exception e) {
+            LOG.warn(String.format("[pod-terminator] Failed to delete %d pods by job id, deleting them one by one:", instances.size()), e);
+        } finally {
+            permits.release();
+        }
+        return deleted;
+    }
+
+    private static void deleteEach(KubernetesClient client, Queue<KubernetesInstance> remaining, Semaphore permits, PodTerminationResult result) {
+        KubernetesInstance instance;
+        while ((instance = remaining.poll()) != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.failed(instance.podName(), e);
+                continue;
+            }
+
+            try {
+                instance.terminate(client);
+                result.terminated(instance.podName());
+            } catch (Exception e) {
+                LOG.warn(String.format("[pod-terminator] Failed to terminate pod %s:", instance.podName()), e);
+                result.failed(instance.podName(), e);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+}
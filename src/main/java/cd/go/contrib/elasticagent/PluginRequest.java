@@ -18,27 +18,54 @@ package cd.go.contrib.elasticagent;
 
 import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.model.ServerInfo;
-import com.google.gson.GsonBuilder;
+import com.google.gson.Gson;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.request.DefaultGoApiRequest;
 import com.thoughtworks.go.plugin.api.response.GoApiResponse;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static cd.go.contrib.elasticagent.Constants.*;
 import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
+import static cd.go.contrib.elasticagent.utils.Util.daemonThreadFactory;
 import static java.text.MessageFormat.format;
 
 public class PluginRequest {
+    static final Duration SERVER_INFO_TTL = Duration.ofMinutes(5);
+    private static final Gson GSON = new Gson();
+    private static final ExecutorService SERVER_INFO_REFRESHER = Executors.newSingleThreadExecutor(daemonThreadFactory("k8s-server-info"));
+
     private final GoApplicationAccessor accessor;
+    private final Executor serverInfoRefresher;
+    private final Clock clock;
+    private final AtomicBoolean refreshingServerInfo = new AtomicBoolean();
+    // Guards the generation and the cached server info, so that server info is never cached once its generation is invalidated.
+    private final Object serverInfoLock = new Object();
+    private final AtomicLong serverInfoGeneration = new AtomicLong();
+    private volatile CachedServerInfo cachedServerInfo;
 
     public PluginRequest(GoApplicationAccessor accessor) {
+        this(accessor, SERVER_INFO_REFRESHER, Clock.DEFAULT);
+    }
+
+    //used for testing..
+    PluginRequest(GoApplicationAccessor accessor, Executor serverInfoRefresher, Clock clock) {
         this.accessor = accessor;
+        this.serverInfoRefresher = serverInfoRefresher;
+        this.clock = clock;
     }
 
     public ServerInfo getSeverInfo() throws ServerRequestFailedException {
+        long generation = serverInfoGeneration.get();
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_INFO, SERVER_INFO_API_VERSION, PLUGIN_IDENTIFIER);
         GoApiResponse response = accessor.submit(request);
 
@@ -46,7 +73,75 @@ public class PluginRequest {
             throw ServerRequestFailedException.serverInfo(response);
         }
 
-        return ServerInfo.fromJSON(response.responseBody());
+        ServerInfo serverInfo = ServerInfo.fromJSON(response.responseBody());
+        // Not cached when invalidated while fetching, as the response may predate the change.
+        synchronized (serverInfoLock) {
+            if (serverInfoGeneration.get() == generation) {
+                cachedServerInfo = new CachedServerInfo(serverInfo, clock.now());
+            }
+        }
+        return serverInfo;
+    }
+
+    /**
+     * Returns the server info fetched last, only asking the server when it has not been fetched yet. Server info
+     * older than {@link #SERVER_INFO_TTL} is still returned while it is refreshed in the background.
+     */
+    public ServerInfo cachedServerInfo() throws ServerRequestFailedException {
+        CachedServerInfo cached = cachedServerInfo;
+        if (cached == null) {
+            return getSeverInfo();
+        }
+        if (isStale(cached)) {
+            refreshServerInfoInBackground();
+        }
+        return cached.serverInfo();
+    }
+
+    /**
+     * Fetches the server info in the background when it is missing or stale, so that it is at hand when a pod is
+     * created.
+     */
+    public void prefetchServerInfo() {
+        CachedServerInfo cached = cachedServerInfo;
+        if (cached == null || isStale(cached)) {
+            refreshServerInfoInBackground();
+        }
+    }
+
+    /**
+     * Drops the cached server info, and any server info being fetched, and fetches it again in the background.
+     */
+    public void invalidateServerInfo() {
+        synchronized (serverInfoLock) {
+            serverInfoGeneration.incrementAndGet();
+            cachedServerInfo = null;
+        }
+        refreshServerInfoInBackground();
+    }
+
+    private boolean isStale(CachedServerInfo cached) {
+        return clock.now().isAfter(cached.fetchedAt().plus(SERVER_INFO_TTL));
+    }
+
+    private void refreshServerInfoInBackground() {
+        if (!refreshingServerInfo.compareAndSet(false, true)) {
+            return;
+        }
+        serverInfoRefresher.execute(() -> {
+            long generation = serverInfoGeneration.get();
+            try {
+                getSeverInfo();
+            } catch (Exception e) {
+                LOG.warn("Failed to refresh the server info.", e);
+            } finally {
+                refreshingServerInfo.set(false);
+            }
+            // The refresh asked for by an invalidation while this one was running was skipped, and is run now instead.
+            if (serverInfoGeneration.get() != generation) {
+                refreshServerInfoInBackground();
+            }
+        });
     }
 
     public Agents listAgents() throws ServerRequestFailedException {
@@ -57,7 +152,7 @@ public class PluginRequest {
             throw ServerRequestFailedException.listAgents(response);
         }
 
-        return new Agents(Agent.fromJSONArray(response.responseBody()));
+        return Agents.fromJSONArray(response.responseBody());
     }
 
     public void disableAgents(Collection<Agent> toBeDisabled) throws ServerRequestFailedException {
@@ -101,7 +196,7 @@ public class PluginRequest {
         requestMap.put("text", text);
 
         DefaultGoApiRequest request = new DefaultGoApiRequest(Constants.REQUEST_SERVER_APPEND_TO_CONSOLE_LOG, CONSOLE_LOG_API_VERSION, PLUGIN_IDENTIFIER);
-        request.setRequestBody(new GsonBuilder().create().toJson(requestMap));
+        request.setRequestBody(GSON.toJson(requestMap));
 
         GoApiResponse response = accessor.submit(request);
 
@@ -109,4 +204,7 @@ public class PluginRequest {
             LOG.error("Failed to append to console log for " + jobIdentifier.getRepresentation() + " with text: " + text);
         }
     }
+
+    private record CachedServerInfo(ServerInfo serverInfo, Instant fetchedAt) {
+    }
 }
@@ -61,6 +61,18 @@ public class PluginSettings {
     @SerializedName("cluster_request_timeout")
     private String clusterRequestTimeout;
 
+    @Expose
+    @SerializedName("pod_termination_concurrency")
+    private String podTerminationConcurrency;
+
+    @Expose
+    @SerializedName("api_qps")
+    private String apiQps;
+
+    @Expose
+    @SerializedName("api_burst")
+    private String apiBurst;
+
     private Duration autoRegisterPeriod;
 
     public PluginSettings() {
@@ -121,6 +133,21 @@ public class PluginSettings {
         return getOrDefault(this.namespace, null);
     }
 
+    public Integer getPodTerminationConcurrency() {
+        Integer value = !isBlank(this.podTerminationConcurrency) ? Integer.valueOf(this.podTerminationConcurrency) : null;
+        return Math.max(1, getOrDefault(value, 10));
+    }
+
+    public Integer getApiQps() {
+        Integer value = !isBlank(this.apiQps) ? Integer.valueOf(this.apiQps) : null;
+        return Math.max(1, getOrDefault(value, 50));
+    }
+
+    public Integer getApiBurst() {
+        Integer value = !isBlank(this.apiBurst) ? Integer.valueOf(this.apiBurst) : null;
+        return Math.max(1, getOrDefault(value, 100));
+    }
+
     private <T> T getOrDefault(T t, T defaultValue) {
         if (t instanceof String && isBlank(String.valueOf(t))) {
             return defaultValue;
@@ -152,6 +179,12 @@ public class PluginSettings {
             return false;
         if (!Objects.equals(clusterRequestTimeout, that.clusterRequestTimeout))
             return false;
+        if (!Objects.equals(podTerminationConcurrency, that.podTerminationConcurrency))
+            return false;
+        if (!Objects.equals(apiQps, that.apiQps))
+            return false;
+        if (!Objects.equals(apiBurst, that.apiBurst))
+            return false;
         return Objects.equals(namespace, that.namespace);
     }
 
@@ -164,6 +197,9 @@ public class PluginSettings {
         result = 31 * result + (securityToken != null ? securityToken.hashCode() : 0);
         result = 31 * result + (clusterCACertData != null ? clusterCACertData.hashCode() : 0);
         result = 31 * result + (clusterRequestTimeout != null ? clusterRequestTimeout.hashCode() : 0);
+        result = 31 * result + (podTerminationConcurrency != null ? podTerminationConcurrency.hashCode() : 0);
+        result = 31 * result + (apiQps != null ? apiQps.hashCode() : 0);
+        result = 31 * result + (apiBurst != null ? apiBurst.hashCode() : 0);
         result = 31 * result + (namespace != null ? namespace.hashCode() : 0);
         return result;
     }
@@ -178,6 +214,9 @@ public class PluginSettings {
                 ", securityToken='" + securityToken + '\'' +
                 ", clusterCACertData='" + clusterCACertData + '\'' +
                 ", clusterRequestTimeout=" + clusterRequestTimeout +
+                ", podTerminationConcurrency=" + podTerminationConcurrency +
+                ", apiQps=" + apiQps +
+                ", apiBurst=" + apiBurst +
                 ", namespace='" + namespace + '\'' +
                 ", autoRegisterPeriod=" + autoRegisterPeriod +
                 '}';
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.fabric8.kubernetes.api.model.Pod;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A pod spec template that has been rendered and parsed once. The postfix placeholders are rendered as sentinels and
+ * the places they end up in are tracked as slots, so a pod is created by copying the parsed tree and filling in the
+ * slots with fresh postfixes instead of rendering and parsing the template again.
+ */
+class PodSpecPrototype {
+    static final String POD_POSTFIX_SENTINEL = "pod-postfix-" + UUID.randomUUID();
+    static final String CONTAINER_POSTFIX_SENTINEL = "container-postfix-" + UUID.randomUUID();
+
+    private final ObjectMapper mapper;
+    private final ObjectNode tree;
+    private final List<Slot> slots;
+
+    private PodSpecPrototype(ObjectMapper mapper, ObjectNode tree, List<Slot> slots) {
+        this.mapper = mapper;
+        this.tree = tree;
+        this.slots = slots;
+    }
+
+    static PodSpecPrototype parse(String renderedPodSpec, ObjectMapper mapper) throws IOException {
+        Pod pod = mapper.readValue(renderedPodSpec, Pod.class);
+        if (pod == null) {
+            throw new IOException("Pod spec is empty.");
+        }
+        ObjectNode tree = mapper.valueToTree(pod);
+        List<Slot> slots = new ArrayList<>();
+        collectSlots(tree, JsonPointer.empty(), slots);
+        return new PodSpecPrototype(mapper, tree, List.copyOf(slots));
+    }
+
+    Pod instantiate(String podPostfix, String containerPostfix) throws IOException {
+        ObjectNode pod = tree.deepCopy();
+        for (Slot slot : slots) {
+            slot.fill(pod, podPostfix, containerPostfix);
+        }
+        return mapper.treeToValue(pod, Pod.class);
+    }
+
+    int slotCount() {
+        return slots.size();
+    }
+
+    // Slots are collected children first, so renaming a field never moves a slot that has yet to be filled.
+    private static void collectSlots(JsonNode node, JsonPointer pointer, List<Slot> slots) {
+        if (node.isObject()) {
+            for (Map.Entry<String, JsonNode> field : node.properties()) {
+                collectSlots(field.getValue(), pointer.appendProperty(field.getKey()), slots);
+                if (hasSentinel(field.getKey())) {
+                    slots.add(new Slot(pointer, field.getKey(), -1, true));
+                }
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                collectSlots(node.get(i), pointer.appendIndex(i), slots);
+            }
+        } else if (node.isTextual() && hasSentinel(node.textValue())) {
+            JsonPointer parent = pointer.head();
+            String last = pointer.last().getMatchingProperty();
+            int index = pointer.last().getMatchingIndex();
+            slots.add(new Slot(parent, last, index, false));
+        }
+    }
+
+    private static boolean hasSentinel(String text) {
+        return text.contains(POD_POSTFIX_SENTINEL) || text.contains(CONTAINER_POSTFIX_SENTINEL);
+    }
+
+    private static String substitute(String text, String podPostfix, String containerPostfix) {
+        return text.replace(POD_POSTFIX_SENTINEL, podPostfix).replace(CONTAINER_POSTFIX_SENTINEL, containerPostfix);
+    }
+
+    private record Slot(JsonPointer parent, String field, int index, boolean isFieldName) {
+        void fill(ObjectNode pod, String podPostfix, String containerPostfix) {
+            JsonNode container = pod.at(parent);
+            if (container instanceof ArrayNode array) {
+                array.set(index, TextNode.valueOf(substitute(array.get(index).textValue(), podPostfix, containerPostfix)));
+            } else if (container instanceof ObjectNode object) {
+                if (isFieldName) {
+                    object.set(substitute(field, podPostfix, containerPostfix), object.remove(field));
+                } else {
+                    object.put(field, substitute(object.get(field).textValue(), podPostfix, containerPostfix));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The outcome of terminating a set of agent pods. A pod that did not exist counts as terminated.
+ */
+public class PodTerminationResult {
+    private final Set<String> terminated = ConcurrentHashMap.newKeySet();
+    private final Map<String, Exception> failures = new ConcurrentHashMap<>();
+
+    void terminated(String podName) {
+        terminated.add(podName);
+    }
+
+    void failed(String podName, Exception e) {
+        failures.put(podName, e);
+    }
+
+    public Set<String> terminated() {
+        return Collections.unmodifiableSet(terminated);
+    }
+
+    public Map<String, Exception> failures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    public boolean isTerminated(String podName) {
+        return terminated.contains(podName);
+    }
+}
@@ -16,6 +16,8 @@
 
 package cd.go.contrib.elasticagent.executors;
 
+import cd.go.contrib.elasticagent.AgentTeardownQueue;
+import cd.go.contrib.elasticagent.ClusterCircuitBreaker;
 import cd.go.contrib.elasticagent.KubernetesClientFactory;
 import cd.go.contrib.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagent.model.KubernetesCluster;
@@ -32,17 +34,21 @@ public class ClusterStatusReportExecutor {
     private final PluginStatusReportViewBuilder statusReportViewBuilder;
     private final ClusterStatusReportRequest request;
     private final KubernetesClientFactory factory;
+    private final ClusterCircuitBreaker circuitBreaker;
 
     public ClusterStatusReportExecutor(ClusterStatusReportRequest request, PluginStatusReportViewBuilder statusReportViewBuilder) {
-        this.request = request;
-        this.factory = KubernetesClientFactory.instance();
-        this.statusReportViewBuilder = statusReportViewBuilder;
+        this(request, statusReportViewBuilder, KubernetesClientFactory.instance());
     }
 
     public ClusterStatusReportExecutor(ClusterStatusReportRequest request, PluginStatusReportViewBuilder statusReportViewBuilder, KubernetesClientFactory factory) {
+        this(request, statusReportViewBuilder, factory, null);
+    }
+
+    public ClusterStatusReportExecutor(ClusterStatusReportRequest request, PluginStatusReportViewBuilder statusReportViewBuilder, KubernetesClientFactory factory, ClusterCircuitBreaker circuitBreaker) {
         this.request = request;
         this.factory = factory;
         this.statusReportViewBuilder = statusReportViewBuilder;
+        this.circuitBreaker = circuitBreaker;
     }
 
     public GoPluginApiResponse execute() {
@@ -50,7 +56,7 @@ public class ClusterStatusReportExecutor {
             LOG.info("[status-report] Generating status report.");
             final KubernetesCluster kubernetesCluster;
             try (KubernetesClientFactory.CachedClient client = factory.client(request.clusterProfileProperties())) {
-                kubernetesCluster = new KubernetesCluster(client.get());
+                kubernetesCluster = new KubernetesCluster(client.get(), AgentTeardownQueue.instance().stats(), circuitBreaker);
             }
             final Template template = statusReportViewBuilder.getTemplate("status-report.template.ftlh");
             final String statusReportView = statusReportViewBuilder.build(template, kubernetesCluster);
@@ -30,27 +30,35 @@ import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
 import static java.text.MessageFormat.format;
 
 public class CreateAgentRequestExecutor implements RequestExecutor {
-    private static final DateTimeFormatter MESSAGE_PREFIX_FORMATTER = DateTimeFormatter.ofPattern("'##|'HH:mm:ss.SSS '[go]'");
     private static final DateTimeFormatter UTC_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss +00:00");
     private final AgentInstances<KubernetesInstance> agentInstances;
     private final PluginRequest pluginRequest;
     private final CreateAgentRequest request;
+    private final ConsoleLogWriter consoleLogWriter;
 
     public CreateAgentRequestExecutor(CreateAgentRequest request, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest) {
+        this(request, agentInstances, pluginRequest, ConsoleLogWriter.instance());
+    }
+
+    public CreateAgentRequestExecutor(CreateAgentRequest request, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest, ConsoleLogWriter consoleLogWriter) {
         this.request = request;
         this.agentInstances = agentInstances;
         this.pluginRequest = pluginRequest;
+        this.consoleLogWriter = consoleLogWriter;
     }
 
     @Override
     public GoPluginApiResponse execute() {
         LOG.debug(format("[Create Agent] creating elastic agent for profile {0} in cluster {1}", request.elasticProfileProperties(), request.clusterProfileProperties()));
-        ConsoleLogAppender consoleLogAppender = text -> {
-            final String message = String.format("%s %s\n", MESSAGE_PREFIX_FORMATTER.format(LocalDateTime.ofInstant(Instant.now(), ZoneOffset.UTC)), text);
-            pluginRequest.appendToConsoleLog(request.jobIdentifier(), message);
-        };
+        ConsoleLogAppender consoleLogAppender = consoleLogWriter.appenderFor(request.jobIdentifier(), pluginRequest);
         LocalDateTime localNow = LocalDateTime.ofInstant(Instant.now(), ZoneOffset.UTC);
         consoleLogAppender.accept(format("Received request to create a pod for job {0} in cluster {1} at {2}", request.jobIdentifier(), request.clusterProfileProperties().getClusterUrl(), UTC_FORMAT.format(localNow)));
+        if (agentInstances.isAgentCreatedForJob(request.jobIdentifier().getJobId())) {
+            LOG.debug(format("[Create Agent] An agent pod has already been scheduled for job {0}, skipping request.", request.jobIdentifier()));
+            consoleLogAppender.accept(format("An agent pod has already been scheduled for job {0}. Waiting for it to register to the GoCD server.", request.jobIdentifier()));
+            return new DefaultGoPluginApiResponse(200);
+        }
+
         try {
             agentInstances.create(request, request.clusterProfileProperties(), pluginRequest, consoleLogAppender);
         } catch (Exception e) {
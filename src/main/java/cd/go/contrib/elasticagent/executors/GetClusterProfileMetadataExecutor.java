@@ -38,6 +38,9 @@ public class GetClusterProfileMetadataExecutor implements RequestExecutor {
     public static final Metadata SECURITY_TOKEN = new Metadata("security_token", false, true);
     public static final Metadata CLUSTER_CA_CERT = new Metadata("kubernetes_cluster_ca_cert", false, true);
     public static final Metadata CLUSTER_REQUEST_TIMEOUT = new Metadata("cluster_request_timeout", false, false);
+    public static final Metadata POD_TERMINATION_CONCURRENCY = new Metadata("pod_termination_concurrency", false, false);
+    public static final Metadata API_QPS = new Metadata("api_qps", false, false);
+    public static final Metadata API_BURST = new Metadata("api_burst", false, false);
 
     public static final List<Metadata> FIELDS = List.of(
         GO_SERVER_URL,
@@ -47,7 +50,10 @@ public class GetClusterProfileMetadataExecutor implements RequestExecutor {
         NAMESPACE,
         SECURITY_TOKEN,
         CLUSTER_CA_CERT,
-        CLUSTER_REQUEST_TIMEOUT
+        CLUSTER_REQUEST_TIMEOUT,
+        POD_TERMINATION_CONCURRENCY,
+        API_QPS,
+        API_BURST
     );
 
     @Override
@@ -21,8 +21,6 @@ import cd.go.contrib.elasticagent.requests.JobCompletionRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.util.List;
-
 import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
 import static java.text.MessageFormat.format;
 
@@ -30,11 +28,17 @@ public class JobCompletionRequestExecutor implements RequestExecutor {
     private final JobCompletionRequest jobCompletionRequest;
     private final AgentInstances<KubernetesInstance> agentInstances;
     private final PluginRequest pluginRequest;
+    private final AgentTeardownQueue teardownQueue;
 
     public JobCompletionRequestExecutor(JobCompletionRequest jobCompletionRequest, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest) {
+        this(jobCompletionRequest, agentInstances, pluginRequest, AgentTeardownQueue.instance());
+    }
+
+    public JobCompletionRequestExecutor(JobCompletionRequest jobCompletionRequest, AgentInstances<KubernetesInstance> agentInstances, PluginRequest pluginRequest, AgentTeardownQueue teardownQueue) {
         this.jobCompletionRequest = jobCompletionRequest;
         this.agentInstances = agentInstances;
         this.pluginRequest = pluginRequest;
+        this.teardownQueue = teardownQueue;
     }
 
     @Override
@@ -43,15 +47,9 @@ public class JobCompletionRequestExecutor implements RequestExecutor {
 
         String elasticAgentId = jobCompletionRequest.getElasticAgentId();
 
-        Agent agent = new Agent();
-        agent.setElasticAgentId(elasticAgentId);
-
-        LOG.info(format("[Job Completion] Terminating elastic agent with id {0} on job completion {1}.", agent.elasticAgentId(), jobCompletionRequest.jobIdentifier()));
+        LOG.info(format("[Job Completion] Terminating elastic agent with id {0} on job completion {1}.", elasticAgentId, jobCompletionRequest.jobIdentifier()));
 
-        List<Agent> agents = List.of(agent);
-        pluginRequest.disableAgents(agents);
-        agentInstances.terminate(agent.elasticAgentId(), clusterProfileProperties);
-        pluginRequest.deleteAgents(agents);
+        teardownQueue.enqueue(elasticAgentId, clusterProfileProperties, agentInstances, pluginRequest);
 
         return DefaultGoPluginApiResponse.success("");
     }
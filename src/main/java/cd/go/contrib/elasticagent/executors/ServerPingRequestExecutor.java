@@ -21,76 +21,88 @@ import cd.go.contrib.elasticagent.requests.ServerPingRequest;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.util.Collection;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 import static cd.go.contrib.elasticagent.KubernetesPlugin.LOG;
 
 public class ServerPingRequestExecutor implements RequestExecutor {
+    public static final String TIME_BUDGET_SYSTEM_PROPERTY_KEY = "go.kubernetes.elastic-agent.plugin.server.ping.time.budget.in.seconds";
 
     private final ServerPingRequest serverPingRequest;
     private final Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances;
+    private final AgentClusterIndex agentClusterIndex;
     private final PluginRequest pluginRequest;
+    // Agents deleted by any cluster, and missing agents, are sent to the server together at the end of the ping.
+    private final AgentMutationBatcher agentMutations;
+    private final DeferredPingWork deferredWork;
+    private final Clock clock;
+    private final Duration timeBudget;
+
+    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances,
+                                     AgentClusterIndex agentClusterIndex, PluginRequest pluginRequest) {
+        this(serverPingRequest, clusterSpecificAgentInstances, agentClusterIndex, pluginRequest, DeferredPingWork.instance(), Clock.DEFAULT, timeBudgetFromSystemProperty());
+    }
 
-    public ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, PluginRequest pluginRequest) {
+    //used for testing..
+    ServerPingRequestExecutor(ServerPingRequest serverPingRequest, Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, AgentClusterIndex agentClusterIndex,
+                              PluginRequest pluginRequest, DeferredPingWork deferredWork, Clock clock, Duration timeBudget) {
         this.serverPingRequest = serverPingRequest;
         this.clusterSpecificAgentInstances = clusterSpecificAgentInstances;
+        this.agentClusterIndex = agentClusterIndex;
         this.pluginRequest = pluginRequest;
+        this.agentMutations = new AgentMutationBatcher(pluginRequest);
+        this.deferredWork = deferredWork;
+        this.clock = clock;
+        this.timeBudget = timeBudget;
     }
 
+    /**
+     * Cleans up all clusters with a {@link ClusterCleanup}, then removes the agents that no cluster knows of. Agents are
+     * deleted with a single request at the end of the ping.
+     * <p>
+     * When a time budget is set, work that does not fit in it is deferred to the next ping.
+     */
     @Override
     public GoPluginApiResponse execute() throws Exception {
-        List<ClusterProfileProperties> allClusterProfileProperties = serverPingRequest.allClusterProfileProperties();
-
-        for (ClusterProfileProperties clusterProfileProperties : allClusterProfileProperties) {
-            performCleanupForACluster(clusterProfileProperties, clusterSpecificAgentInstances.get(clusterProfileProperties.uuid()));
+        final Instant deadline = timeBudget == null ? Instant.MAX : clock.now().plus(timeBudget);
+        ClusterCleanup cleanup = new ClusterCleanup("Server Ping", clusterSpecificAgentInstances, pluginRequest, agentMutations, deferredWork, clock, deadline);
+
+        try {
+            Agents agents = cleanup.cleanUp(serverPingRequest.allClusterProfileProperties());
+
+            if (cleanup.isWithinDeadline()) {
+                CheckForPossiblyMissingAgents(agents, cleanup.deletedAgentIds());
+            }
+        } finally {
+            // Also sends the deletes of pods already terminated when the ping fails part way through.
+            agentMutations.flush();
         }
-
-        CheckForPossiblyMissingAgents();
         return DefaultGoPluginApiResponse.success("");
     }
 
-    private void performCleanupForACluster(ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances kubernetesAgentInstances) throws Exception {
-        Agents allAgents = pluginRequest.listAgents();
-        Agents agentsToDisable = kubernetesAgentInstances.instancesCreatedAfterTimeout(clusterProfileProperties, allAgents);
-        disableIdleAgents(agentsToDisable);
-
-        allAgents = pluginRequest.listAgents();
-        terminateDisabledAgents(allAgents, clusterProfileProperties, kubernetesAgentInstances);
-
-        kubernetesAgentInstances.terminateUnregisteredInstances(clusterProfileProperties, allAgents);
-    }
-
-    private void CheckForPossiblyMissingAgents() {
-        Collection<Agent> allAgents = pluginRequest.listAgents().agents();
-
-        List<Agent> missingAgents = allAgents.stream().filter(agent -> clusterSpecificAgentInstances.values().stream()
-                .noneMatch(instances -> instances.hasInstance(agent.elasticAgentId()))).collect(Collectors.toList());
+    private void CheckForPossiblyMissingAgents(Agents agents, Set<String> deletedAgentIds) throws ServerRequestFailedException {
+        List<Agent> missingAgents = new ArrayList<>();
+        for (Agent agent : agents.agents()) {
+            if (!deletedAgentIds.contains(agent.elasticAgentId()) && !agentClusterIndex.contains(agent.elasticAgentId())) {
+                missingAgents.add(agent);
+            }
+        }
 
         if (!missingAgents.isEmpty()) {
             List<String> missingAgentIds = missingAgents.stream().map(Agent::elasticAgentId).toList();
             LOG.warn("[Server Ping] Was expecting a containers with IDs " + missingAgentIds + ", but it was missing! Removing missing agents from config.");
-            pluginRequest.disableAgents(missingAgents);
-            pluginRequest.deleteAgents(missingAgents);
-        }
-    }
-
-    private void disableIdleAgents(Agents agents) throws ServerRequestFailedException {
-        Collection<Agent> instancesToDisable = agents.findInstancesToDisable();
-        if (!instancesToDisable.isEmpty()) {
-            pluginRequest.disableAgents(instancesToDisable);
+            agentMutations.disable(missingAgents);
+            agentMutations.delete(missingAgents);
         }
     }
 
-    private void terminateDisabledAgents(Agents agents, ClusterProfileProperties clusterProfileProperties, KubernetesAgentInstances dockerContainers) {
-        Collection<Agent> toBeDeleted = agents.findInstancesToTerminate();
-
-        for (Agent agent : toBeDeleted) {
-            dockerContainers.terminate(agent.elasticAgentId(), clusterProfileProperties);
-        }
-
-        pluginRequest.deleteAgents(toBeDeleted);
+    private static Duration timeBudgetFromSystemProperty() {
+        long seconds = Long.getLong(TIME_BUDGET_SYSTEM_PROPERTY_KEY, 0);
+        return seconds > 0 ? Duration.ofSeconds(seconds) : null;
     }
 }
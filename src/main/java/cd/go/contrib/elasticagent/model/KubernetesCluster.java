@@ -16,6 +16,8 @@
 
 package cd.go.contrib.elasticagent.model;
 
+import cd.go.contrib.elasticagent.AgentTeardownQueue;
+import cd.go.contrib.elasticagent.ClusterCircuitBreaker;
 import cd.go.contrib.elasticagent.Constants;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.client.KubernetesClient;
@@ -30,9 +32,17 @@ import static java.util.stream.Collectors.toMap;
 public class KubernetesCluster {
     private final List<KubernetesNode> nodes;
     private final String pluginId;
+    private final AgentTeardownQueue.Stats teardown;
+    private final ClusterCircuitBreaker circuitBreaker;
 
     public KubernetesCluster(KubernetesClient client) {
+        this(client, null, null);
+    }
+
+    public KubernetesCluster(KubernetesClient client, AgentTeardownQueue.Stats teardown, ClusterCircuitBreaker circuitBreaker) {
         pluginId = Constants.PLUGIN_ID;
+        this.teardown = teardown;
+        this.circuitBreaker = circuitBreaker;
         nodes = client.nodes().list().getItems().stream().map(KubernetesNode::new).collect(toList());
         LOG.info("Running kubernetes nodes " + nodes.size());
         fetchPods(client);
@@ -63,4 +73,12 @@ public class KubernetesCluster {
     public String getPluginId() {
         return pluginId;
     }
+
+    public AgentTeardownQueue.Stats getTeardown() {
+        return teardown;
+    }
+
+    public ClusterCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
 }
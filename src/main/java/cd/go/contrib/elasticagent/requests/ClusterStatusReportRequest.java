@@ -16,7 +16,9 @@
 
 package cd.go.contrib.elasticagent.requests;
 
+import cd.go.contrib.elasticagent.ClusterCircuitBreaker;
 import cd.go.contrib.elasticagent.ClusterProfileProperties;
+import cd.go.contrib.elasticagent.KubernetesClientFactory;
 import cd.go.contrib.elasticagent.builders.PluginStatusReportViewBuilder;
 import cd.go.contrib.elasticagent.executors.ClusterStatusReportExecutor;
 import com.google.gson.annotations.Expose;
@@ -51,6 +53,10 @@ public class ClusterStatusReportRequest {
         return new ClusterStatusReportExecutor(this, PluginStatusReportViewBuilder.instance());
     }
 
+    public ClusterStatusReportExecutor executor(ClusterCircuitBreaker circuitBreaker) {
+        return new ClusterStatusReportExecutor(this, PluginStatusReportViewBuilder.instance(), KubernetesClientFactory.instance(), circuitBreaker);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
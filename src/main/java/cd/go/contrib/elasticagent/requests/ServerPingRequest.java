@@ -16,6 +16,7 @@
 
 package cd.go.contrib.elasticagent.requests;
 
+import cd.go.contrib.elasticagent.AgentClusterIndex;
 import cd.go.contrib.elasticagent.ClusterProfileProperties;
 import cd.go.contrib.elasticagent.KubernetesAgentInstances;
 import cd.go.contrib.elasticagent.PluginRequest;
@@ -60,8 +61,8 @@ public class ServerPingRequest {
                 '}';
     }
 
-    public ServerPingRequestExecutor executor(Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, PluginRequest pluginRequest) {
-        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, pluginRequest);
+    public ServerPingRequestExecutor executor(Map<String, KubernetesAgentInstances> clusterSpecificAgentInstances, AgentClusterIndex agentClusterIndex, PluginRequest pluginRequest) {
+        return new ServerPingRequestExecutor(this, clusterSpecificAgentInstances, agentClusterIndex, pluginRequest);
     }
 
     @Override
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+public class AgentMutationBatcherTest {
+    private final PluginRequest pluginRequest = mock(PluginRequest.class);
+    private final AgentMutationBatcher batcher = new AgentMutationBatcher(pluginRequest);
+    private final Agent agent1 = new Agent("agent-1", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+    private final Agent agent2 = new Agent("agent-2", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+
+    @Test
+    public void shouldSendAllDisablesBeforeAllDeletesWithOneRequestEach() {
+        batcher.delete(List.of(agent1));
+        batcher.disable(List.of(agent1));
+        batcher.disable(List.of(agent2));
+        batcher.delete(List.of(agent2, agent1));
+
+        batcher.flush();
+
+        InOrder inOrder = inOrder(pluginRequest);
+        inOrder.verify(pluginRequest).disableAgents(List.of(agent1, agent2));
+        inOrder.verify(pluginRequest).deleteAgents(List.of(agent1, agent2));
+        verifyNoMoreInteractions(pluginRequest);
+        assertThat(batcher.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldNotDeleteAgentsWhenDisablingFails() {
+        ServerRequestFailedException failure = ServerRequestFailedException.disableAgents(DefaultGoApiResponse.error("Boom!"));
+        doThrow(failure).when(pluginRequest).disableAgents(anyCollection());
+        CompletableFuture<Void> disabled = batcher.disable(List.of(agent1));
+        CompletableFuture<Void> deleted = batcher.delete(List.of(agent1));
+
+        assertThatThrownBy(batcher::flush).isSameAs(failure);
+
+        verify(pluginRequest, never()).deleteAgents(anyCollection());
+        assertThat(disabled).isCompletedExceptionally();
+        assertThat(deleted).isCompletedExceptionally();
+    }
+
+    @Test
+    public void shouldNotSendAnythingWhenThereIsNothingToSend() {
+        batcher.flush();
+
+        verifyNoInteractions(pluginRequest);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class AgentReconcilerTest {
+    private final ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties();
+    private PluginRequest pluginRequest;
+    private KubernetesAgentInstances agentInstances;
+    private AgentReconciler reconciler;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        pluginRequest = mock(PluginRequest.class);
+        agentInstances = mock(KubernetesAgentInstances.class);
+        reconciler = new AgentReconciler(mock(ScheduledExecutorService.class), Runnable::run, pluginRequest, Duration.ofSeconds(30));
+
+        when(agentInstances.tryCleanup(any())).thenAnswer(invocation -> {
+            invocation.<KubernetesAgentInstances.ClusterCall>getArgument(0).run();
+            return true;
+        });
+        doAnswer(invocation -> {
+            invocation.<KubernetesAgentInstances.ClusterCall>getArgument(0).run();
+            return null;
+        }).when(agentInstances).cleanup(any());
+        when(agentInstances.callClusterForCleanup(anyString(), any(), any())).thenAnswer(invocation -> {
+            invocation.<KubernetesAgentInstances.ClusterCall>getArgument(2).run();
+            return true;
+        });
+    }
+
+    @Test
+    public void shouldDisableIdleAgentsAndTerminateStaleAgentsOfTheCluster() throws Exception {
+        Agent idleAgent = new Agent("idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        Agent disabledAgent = new Agent("idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Disabled);
+        Agent agentOfAnotherCluster = new Agent("other-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Disabled);
+        Agents agentsBeforeDisabling = new Agents(List.of(idleAgent, agentOfAnotherCluster));
+        Agents agentsAfterDisabling = new Agents(List.of(disabledAgent, agentOfAnotherCluster));
+        when(pluginRequest.listAgents()).thenReturn(agentsBeforeDisabling, agentsAfterDisabling);
+        when(agentInstances.instancesCreatedAfterTimeout(clusterProfileProperties, agentsBeforeDisabling)).thenReturn(new Agents(List.of(idleAgent)));
+        when(agentInstances.hasInstance("idle-agent")).thenReturn(true);
+        PodTerminationResult result = new PodTerminationResult();
+        result.terminated("idle-agent");
+        when(agentInstances.terminate(List.of("idle-agent"), clusterProfileProperties)).thenReturn(result);
+
+        reconciler.track(clusterProfileProperties, agentInstances);
+        reconciler.reconcile(clusterProfileProperties.uuid());
+
+        verify(agentInstances).refreshAll(clusterProfileProperties);
+        verify(pluginRequest).disableAgents(List.of(idleAgent));
+        verify(agentInstances).terminate(List.of("idle-agent"), clusterProfileProperties);
+        verify(pluginRequest).deleteAgents(List.of(disabledAgent));
+        verify(agentInstances).terminateUnregisteredInstances(clusterProfileProperties, agentsBeforeDisabling);
+    }
+
+    @Test
+    public void shouldReconcileClustersOnTheCleanupExecutor() throws Exception {
+        List<Runnable> submitted = new ArrayList<>();
+        reconciler = new AgentReconciler(mock(ScheduledExecutorService.class), submitted::add, pluginRequest, Duration.ofSeconds(30));
+        when(pluginRequest.listAgents()).thenReturn(new Agents());
+        when(agentInstances.instancesCreatedAfterTimeout(any(), any())).thenReturn(new Agents());
+
+        reconciler.track(clusterProfileProperties, agentInstances);
+        reconciler.startReconciling(clusterProfileProperties.uuid());
+        reconciler.startReconciling(clusterProfileProperties.uuid());
+
+        assertThat(submitted).hasSize(1);
+        verify(agentInstances, never()).tryCleanup(any());
+
+        submitted.get(0).run();
+        verify(agentInstances).refreshAll(clusterProfileProperties);
+
+        reconciler.startReconciling(clusterProfileProperties.uuid());
+        assertThat(submitted).hasSize(2);
+    }
+
+    @Test
+    public void shouldSkipTheClusterWhileAServerPingIsCleaningItUp() throws Exception {
+        when(agentInstances.tryCleanup(any())).thenReturn(false);
+
+        reconciler.track(clusterProfileProperties, agentInstances);
+        reconciler.reconcile(clusterProfileProperties.uuid());
+
+        verifyNoInteractions(pluginRequest);
+        verify(agentInstances, never()).refreshAll(any());
+    }
+
+    @Test
+    public void shouldStopReconcilingAClusterOnceUntracked() throws Exception {
+        reconciler.track(clusterProfileProperties, agentInstances);
+        reconciler.untrack(clusterProfileProperties.uuid());
+        reconciler.reconcile(clusterProfileProperties.uuid());
+
+        assertThat(reconciler.isTracking(clusterProfileProperties.uuid())).isFalse();
+        verify(agentInstances, never()).tryCleanup(any());
+    }
+}
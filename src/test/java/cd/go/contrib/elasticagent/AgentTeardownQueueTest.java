@@ -0,0 +1,111 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+public class AgentTeardownQueueTest {
+    private ScheduledExecutorService scheduler;
+    private AgentTeardownQueue teardownQueue;
+    private PluginRequest pluginRequest;
+    private KubernetesAgentInstances agentInstances;
+    private final PluginSettings settings = new PluginSettings();
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        teardownQueue = new AgentTeardownQueue(scheduler, Clock.DEFAULT);
+        pluginRequest = mock(PluginRequest.class);
+        agentInstances = mock(KubernetesAgentInstances.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void shouldDisableTerminateAndDeleteAgentInTheBackground() throws Exception {
+        teardownQueue.enqueue("agent-1", settings, agentInstances, pluginRequest);
+
+        verify(pluginRequest, timeout(5000)).deleteAgents(anyList());
+        awaitTeardowns();
+        InOrder inOrder = inOrder(pluginRequest, agentInstances);
+        inOrder.verify(pluginRequest).disableAgents(anyList());
+        inOrder.verify(agentInstances).terminate("agent-1", settings);
+        inOrder.verify(pluginRequest).deleteAgents(anyList());
+
+        AgentTeardownQueue.Stats stats = teardownQueue.stats();
+        assertThat(stats.getQueueDepth()).isEqualTo(0);
+        assertThat(stats.getCompleted()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRetryOnlyTheStepsThatFailed() throws Exception {
+        doThrow(new RuntimeException("Ouch!")).doNothing().when(agentInstances).terminate("agent-1", settings);
+
+        teardownQueue.enqueue("agent-1", settings, agentInstances, pluginRequest);
+
+        verify(pluginRequest, timeout(5000)).deleteAgents(anyList());
+        awaitTeardowns();
+        verify(pluginRequest, times(1)).disableAgents(anyList());
+        verify(agentInstances, times(2)).terminate("agent-1", settings);
+        assertThat(teardownQueue.stats().getCompleted()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldDisableAndDeleteTheAgentsOfJobsCompletingTogetherWithOneRequestEach() throws Exception {
+        teardownQueue.enqueue("agent-1", settings, agentInstances, pluginRequest);
+        teardownQueue.enqueue("agent-2", settings, agentInstances, pluginRequest);
+        teardownQueue.enqueue("agent-3", settings, agentInstances, pluginRequest);
+
+        verify(pluginRequest, timeout(5000)).deleteAgents(anyList());
+        awaitTeardowns();
+        verify(pluginRequest, times(1)).disableAgents(argThat(agents -> agents.size() == 3));
+        verify(agentInstances).terminate("agent-1", settings);
+        verify(agentInstances).terminate("agent-2", settings);
+        verify(agentInstances).terminate("agent-3", settings);
+        verify(pluginRequest, times(1)).deleteAgents(argThat(agents -> agents.size() == 3));
+        assertThat(teardownQueue.stats().getCompleted()).isEqualTo(3);
+    }
+
+    private void awaitTeardowns() throws InterruptedException {
+        scheduler.shutdown();
+        assertThat(scheduler.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldBackOffExponentiallyUpToALimit() {
+        assertThat(AgentTeardownQueue.backoff(1)).isEqualTo(Duration.ofSeconds(1));
+        assertThat(AgentTeardownQueue.backoff(2)).isEqualTo(Duration.ofSeconds(2));
+        assertThat(AgentTeardownQueue.backoff(4)).isEqualTo(Duration.ofSeconds(8));
+        assertThat(AgentTeardownQueue.backoff(10)).isEqualTo(AgentTeardownQueue.MAX_BACKOFF);
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AgentsTest {
+    @Test
+    public void shouldReadAgentsFromJSONLikeGsonDoes() {
+        String json = "[" +
+                "{\"agent_id\":\"agent-1\",\"agent_state\":\"Building\",\"build_state\":\"Cancelled\",\"config_state\":\"Disabled\",\"unknown\":{\"nested\":[1,2]}}," +
+                "{\"agent_id\":\"agent-2\",\"agent_state\":\"SomethingNew\",\"build_state\":null,\"config_state\":\"Enabled\"}" +
+                "]";
+
+        Agents agents = Agents.fromJSONArray(json);
+
+        assertThat(agents.agents()).containsExactlyInAnyOrderElementsOf(Agent.fromJSONArray(json));
+        assertThat(agents.agentIds()).containsExactlyInAnyOrder("agent-1", "agent-2");
+    }
+
+    @Test
+    public void shouldFailOnMalformedJSON() {
+        assertThatThrownBy(() -> Agents.fromJSONArray("{\"agent_id\":\"agent-1\"}")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldFindAgentsToDisableAndToTerminate() {
+        Agent idle = new Agent("idle", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        Agent lostContact = new Agent("lost-contact", Agent.AgentState.LostContact, Agent.BuildState.Unknown, Agent.ConfigState.Enabled);
+        Agent building = new Agent("building", Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Enabled);
+        Agent disabled = new Agent("disabled", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Disabled);
+        Agent disabledWhileBuilding = new Agent("disabled-building", Agent.AgentState.Building, Agent.BuildState.Building, Agent.ConfigState.Disabled);
+        Agent pending = new Agent("pending", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Pending);
+
+        Agents agents = new Agents(List.of(idle, lostContact, building, disabled, disabledWhileBuilding, pending));
+
+        assertThat(agents.findInstancesToDisable()).containsExactlyInAnyOrder(idle, lostContact);
+        assertThat(agents.findInstancesToTerminate()).containsExactlyInAnyOrder(disabled);
+
+        Agent missing = new Agent("missing", Agent.AgentState.Missing, Agent.BuildState.Unknown, Agent.ConfigState.Disabled);
+        agents.add(missing);
+        assertThat(agents.findInstancesToTerminate()).containsExactlyInAnyOrder(disabled, missing);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterCircuitBreakerTest {
+    private Clock.TestClock clock;
+    private ClusterCircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    public void setUp() {
+        clock = new Clock.TestClock(Instant.parse("2024-01-01T00:00:00Z"));
+        circuitBreaker = new ClusterCircuitBreaker(clock);
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        for (int i = 1; i < ClusterCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.recordFailure();
+            assertThat(circuitBreaker.allowRequest()).isTrue();
+        }
+
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(ClusterCircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    public void shouldResetFailuresOnSuccess() {
+        for (int i = 1; i < ClusterCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.recordFailure();
+        }
+        circuitBreaker.recordSuccess();
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(ClusterCircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.getConsecutiveFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLetASingleProbeThroughOnceOpenDurationHasElapsed() {
+        open();
+
+        clock.set(clock.now().plus(ClusterCircuitBreaker.OPEN_DURATION));
+
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+        assertThat(circuitBreaker.getState()).isEqualTo(ClusterCircuitBreaker.State.HALF_OPEN);
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    public void shouldCloseWhenProbeSucceeds() {
+        open();
+        clock.set(clock.now().plus(ClusterCircuitBreaker.OPEN_DURATION));
+        circuitBreaker.allowRequest();
+
+        circuitBreaker.recordSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(ClusterCircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    public void shouldOpenAgainWhenProbeFails() {
+        open();
+        clock.set(clock.now().plus(ClusterCircuitBreaker.OPEN_DURATION));
+        circuitBreaker.allowRequest();
+
+        circuitBreaker.recordFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(ClusterCircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.allowRequest()).isFalse();
+    }
+
+    private void open() {
+        for (int i = 0; i < ClusterCircuitBreaker.FAILURE_THRESHOLD; i++) {
+            circuitBreaker.recordFailure();
+        }
+    }
+}
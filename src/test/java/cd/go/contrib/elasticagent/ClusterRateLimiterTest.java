@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void shouldLetBurstThroughWithoutWaiting() {
+        ClusterRateLimiter rateLimiter = new ClusterRateLimiter(10, 5, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(rateLimiter.reserve(0)).isZero();
+        }
+        assertThat(rateLimiter.reserve(0)).isEqualTo(SECOND / 10);
+        assertThat(rateLimiter.reserve(0)).isEqualTo(2 * SECOND / 10);
+    }
+
+    @Test
+    public void shouldRefillTokensAtConfiguredRate() {
+        ClusterRateLimiter rateLimiter = new ClusterRateLimiter(10, 5, 0);
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.reserve(0);
+        }
+
+        assertThat(rateLimiter.reserve(SECOND / 10)).isZero();
+        assertThat(rateLimiter.reserve(SECOND / 10)).isEqualTo(SECOND / 10);
+    }
+
+    @Test
+    public void shouldWaitForRetryAfterAndHalveRateWhenThrottled() {
+        ClusterRateLimiter rateLimiter = new ClusterRateLimiter(10, 5, 0);
+
+        rateLimiter.throttled(0, 3);
+
+        assertThat(rateLimiter.qps()).isEqualTo(5);
+        assertThat(rateLimiter.reserve(0)).isEqualTo(3 * SECOND);
+        assertThat(rateLimiter.reserve(3 * SECOND)).isZero();
+    }
+
+    @Test
+    public void shouldRecoverRateWhenNoLongerThrottled() {
+        ClusterRateLimiter rateLimiter = new ClusterRateLimiter(10, 5, 0);
+        rateLimiter.throttled(0, 1);
+        rateLimiter.throttled(0, 1);
+        assertThat(rateLimiter.qps()).isEqualTo(2.5);
+
+        rateLimiter.reserve(2 * SECOND);
+        assertThat(rateLimiter.qps()).isEqualTo(4.5);
+
+        rateLimiter.reserve(60 * SECOND);
+        assertThat(rateLimiter.qps()).isEqualTo(10);
+    }
+}
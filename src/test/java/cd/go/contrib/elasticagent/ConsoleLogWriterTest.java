@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cd.go.contrib.elasticagent;
+
+import cd.go.contrib.elasticagent.model.JobIdentifier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ConsoleLogWriterTest {
+    private final JobIdentifier jobIdentifier = new JobIdentifier("p1", 1L, "l1", "s1", "1", "j1", 1L);
+    private ScheduledExecutorService scheduler;
+    private PluginRequest pluginRequest;
+    private ConsoleLogWriter writer;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = mock(ScheduledExecutorService.class);
+        pluginRequest = mock(PluginRequest.class);
+        writer = new ConsoleLogWriter(scheduler, new Clock.TestClock(), Duration.ofMillis(500));
+    }
+
+    @Test
+    public void shouldSendTheLinesWrittenBetweenFlushesWithOneAppend() {
+        ConsoleLogAppender appender = writer.appenderFor(jobIdentifier, pluginRequest);
+
+        appender.accept("first line");
+        appender.accept("second line");
+
+        verifyNoInteractions(pluginRequest);
+        verify(scheduler, times(1)).schedule(any(Runnable.class), eq(500L), eq(TimeUnit.MILLISECONDS));
+
+        writer.flush();
+
+        ArgumentCaptor<String> text = ArgumentCaptor.forClass(String.class);
+        verify(pluginRequest, times(1)).appendToConsoleLog(eq(jobIdentifier), text.capture());
+        assertThat(text.getValue().split("\n")).hasSize(2);
+        assertThat(text.getValue()).contains("[go] first line\n").endsWith("[go] second line\n");
+    }
+
+    @Test
+    public void shouldSummarizeTheLinesDroppedWhenTooManyAreWaitingToBeSent() {
+        ConsoleLogAppender appender = writer.appenderFor(jobIdentifier, pluginRequest);
+
+        for (int i = 0; i < ConsoleLogWriter.MAX_PENDING_LINES_PER_JOB + 5; i++) {
+            appender.accept("line " + i);
+        }
+        writer.flush();
+
+        ArgumentCaptor<String> text = ArgumentCaptor.forClass(String.class);
+        verify(pluginRequest).appendToConsoleLog(eq(jobIdentifier), text.capture());
+        assertThat(text.getValue().split("\n")).hasSize(ConsoleLogWriter.MAX_PENDING_LINES_PER_JOB + 1);
+        assertThat(text.getValue()).endsWith("[go] 5 console log lines were dropped, as they were written faster than they could be sent.\n");
+    }
+
+    @Test
+    public void shouldCollectTheLinesOfAllAppendersOfAJobTogether() {
+        ConsoleLogAppender appender = writer.appenderFor(jobIdentifier, pluginRequest);
+        ConsoleLogAppender anotherAppender = writer.appenderFor(jobIdentifier, pluginRequest);
+        JobIdentifier anotherJob = new JobIdentifier("p1", 1L, "l1", "s1", "1", "j2", 2L);
+        ConsoleLogAppender appenderOfAnotherJob = writer.appenderFor(anotherJob, pluginRequest);
+
+        for (int i = 0; i < ConsoleLogWriter.MAX_PENDING_LINES_PER_JOB; i++) {
+            appender.accept("line " + i);
+            anotherAppender.accept("another line " + i);
+        }
+        appenderOfAnotherJob.accept("line of another job");
+        writer.flush();
+
+        ArgumentCaptor<String> text = ArgumentCaptor.forClass(String.class);
+        verify(pluginRequest, times(1)).appendToConsoleLog(eq(jobIdentifier), text.capture());
+        assertThat(text.getValue().split("\n")).hasSize(ConsoleLogWriter.MAX_PENDING_LINES_PER_JOB + 1);
+        assertThat(text.getValue()).endsWith("[go] 100 console log lines were dropped, as they were written faster than they could be sent.\n");
+        verify(pluginRequest, times(1)).appendToConsoleLog(eq(anotherJob), endsWith("[go] line of another job\n"));
+    }
+
+    @Test
+    public void shouldKeepWritingAfterAFailedAppend() {
+        doThrow(new RuntimeException("Ouch!")).doNothing().when(pluginRequest).appendToConsoleLog(any(), anyString());
+        ConsoleLogAppender appender = writer.appenderFor(jobIdentifier, pluginRequest);
+
+        appender.accept("first line");
+        writer.flush();
+        appender.accept("second line");
+        writer.flush();
+
+        verify(pluginRequest, times(2)).appendToConsoleLog(eq(jobIdentifier), anyString());
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(500L), eq(TimeUnit.MILLISECONDS));
+    }
+}
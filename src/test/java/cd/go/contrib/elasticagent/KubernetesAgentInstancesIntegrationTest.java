@@ -16,6 +16,7 @@
 
 package cd.go.contrib.elasticagent;
 
+import cd.go.contrib.elasticagent.model.ServerInfo;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
 import com.google.gson.Gson;
 import io.fabric8.kubernetes.api.model.*;
@@ -83,7 +84,8 @@ public class KubernetesAgentInstancesIntegrationTest {
             return mockedPodResource;
         });
 
-        when(pods.list()).thenReturn(new PodList());
+        when(pods.withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)).thenReturn(pods);
+        when(pods.list(any(ListOptions.class))).thenReturn(new PodList());
         when(mockKubernetesClient.pods()).thenReturn(pods);
 
         createAgentRequest = CreateAgentRequestMother.defaultCreateAgentRequest();
@@ -247,6 +249,17 @@ public class KubernetesAgentInstancesIntegrationTest {
         verify(mockedPodResource).create();
     }
 
+    @Test
+    public void shouldLabelKubernetesPodWithTheIdOfTheServer() {
+        when(mockedPluginRequest.cachedServerInfo()).thenReturn(ServerInfo.fromJSON("{\"server_id\": \"server-1\"}"));
+        ArgumentCaptor<Pod> argumentCaptor = ArgumentCaptor.forClass(Pod.class);
+        KubernetesInstance instance = kubernetesAgentInstances.create(createAgentRequest, settings, mockedPluginRequest, consoleLogAppender);
+        verify(pods).resource(argumentCaptor.capture());
+
+        assertThat(argumentCaptor.getValue().getMetadata().getLabels()).containsEntry(Constants.SERVER_ID_LABEL_KEY, "server-1");
+        assertThat(instance.serverId()).isEqualTo("server-1");
+    }
+
     //Tests Using Pod Yaml
 
     @Test
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.fabric8.kubernetes.api.model.*;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs {@link KubernetesAgentInstances#refreshAll(PluginSettings)} against a fake API server hosting a shared namespace
+ * in which most pods are not elastic agents.
+ */
+public class KubernetesAgentInstancesListingTest {
+    private static final int NON_AGENT_PODS = 20_000;
+    private static final int AGENT_PODS = 1_200;
+    private static final int PENDING_AGENT_PODS = 100;
+
+    private final List<Pod> pods = new ArrayList<>();
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong podsTransferred = new AtomicLong();
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+    private HttpServer server;
+    private KubernetesClientFactory factory;
+    private PluginSettings settings;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        for (int i = 0; i < NON_AGENT_PODS; i++) {
+            pods.add(pod("app-" + i, Map.of("app", "some-app", "tier", "backend")));
+        }
+        for (int i = 0; i < AGENT_PODS; i++) {
+            Pod agentPod = pod("k8s-ea-" + i, Map.of(
+                    Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE,
+                    Constants.CREATED_BY_LABEL_KEY, Constants.PLUGIN_ID,
+                    Constants.JOB_ID_LABEL_KEY, String.valueOf(i)));
+            if (i < PENDING_AGENT_PODS) {
+                agentPod.getStatus().setPhase("Pending");
+            }
+            pods.add(agentPod);
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v1/namespaces/gocd/pods", this::listPods);
+        server.start();
+
+        factory = new KubernetesClientFactory(new Clock.TestClock());
+        settings = PluginSettings.fromJSON(new Gson().toJson(Map.of(
+                "kubernetes_cluster_url", "http://localhost:" + server.getAddress().getPort(),
+                "namespace", "gocd"
+        )));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        System.clearProperty(KubernetesAgentInstances.METADATA_ONLY_LISTING_SYSTEM_PROPERTY_KEY);
+        factory.clearOutExistingClient();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldOnlyTransferAgentPodsInPagesWhenRefreshing() {
+        final long bytesForFullList;
+        final int podsInFullList;
+        try (KubernetesClientFactory.CachedClient client = factory.client(settings)) {
+            podsInFullList = client.get().pods().list().getItems().size();
+        }
+        bytesForFullList = bytesTransferred.getAndSet(0);
+        podsTransferred.set(0);
+        listRequests.set(0);
+        queries.clear();
+
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory);
+        agentInstances.refreshAll(settings);
+
+        long bytesForRefresh = bytesTransferred.get();
+        assertThat(podsInFullList).isEqualTo(NON_AGENT_PODS + AGENT_PODS);
+        assertThat(podsTransferred.get()).isEqualTo(AGENT_PODS);
+        assertThat(agentInstances.hasInstance("k8s-ea-0")).isTrue();
+        assertThat(agentInstances.hasInstance("k8s-ea-" + (AGENT_PODS - 1))).isTrue();
+        assertThat(agentInstances.hasInstance("app-0")).isFalse();
+        assertThat(bytesForRefresh).isLessThan(bytesForFullList / 10);
+        assertThat(listRequests.get()).isEqualTo((int) Math.ceil((double) AGENT_PODS / KubernetesPodLister.PAGE_SIZE));
+        assertThat(queries).allSatisfy(query -> assertThat(query)
+                .contains("labelSelector=" + Constants.KUBERNETES_POD_KIND_LABEL_KEY + "=" + Constants.KUBERNETES_POD_KIND_LABEL_VALUE)
+                .contains("limit=" + KubernetesPodLister.PAGE_SIZE));
+    }
+
+    @Test
+    public void shouldOnlyTransferPodMetadataWhenRefreshingInMetadataOnlyMode() {
+        KubernetesAgentInstances fullPods = new KubernetesAgentInstances(factory);
+        fullPods.refreshAll(settings);
+        final long bytesForFullPods = bytesTransferred.getAndSet(0);
+        queries.clear();
+
+        System.setProperty(KubernetesAgentInstances.METADATA_ONLY_LISTING_SYSTEM_PROPERTY_KEY, "true");
+        KubernetesAgentInstances metadataOnly = new KubernetesAgentInstances(factory);
+        metadataOnly.refreshAll(settings);
+
+        long bytesForMetadata = bytesTransferred.get();
+        assertThat(bytesForMetadata).isLessThan(bytesForFullPods);
+        assertThat(bytesForMetadata).isLessThan(bytesForFullPods / 2);
+        assertThat(queries).anySatisfy(query -> assertThat(query).contains("fieldSelector=status.phase=Running"));
+        for (int i = 0; i < AGENT_PODS; i++) {
+            String podName = "k8s-ea-" + i;
+            KubernetesInstance expected = fullPods.find(podName);
+            KubernetesInstance actual = metadataOnly.find(podName);
+            assertThat(actual).isNotNull();
+            assertThat(actual.state()).isEqualTo(expected.state());
+            assertThat(actual.jobId()).isEqualTo(expected.jobId());
+            assertThat(actual.createdAt()).isEqualTo(expected.createdAt());
+        }
+        assertThat(metadataOnly.find("k8s-ea-0").state()).isEqualTo(PodState.Pending);
+        assertThat(metadataOnly.find("k8s-ea-" + (AGENT_PODS - 1)).state()).isEqualTo(PodState.Running);
+    }
+
+    private void listPods(HttpExchange exchange) throws IOException {
+        listRequests.incrementAndGet();
+        Map<String, String> params = queryParameters(exchange.getRequestURI().getRawQuery());
+        queries.add(URLDecoder.decode(Objects.toString(exchange.getRequestURI().getRawQuery(), ""), UTF_8));
+
+        List<Pod> selected = pods.stream()
+                .filter(pod -> matches(pod, params.get("labelSelector")))
+                .filter(pod -> !"status.phase=Running".equals(params.get("fieldSelector")) || "Running".equals(pod.getStatus().getPhase()))
+                .toList();
+        int from = params.containsKey("continue") ? Integer.parseInt(params.get("continue")) : 0;
+        int to = params.containsKey("limit") ? Math.min(selected.size(), from + Integer.parseInt(params.get("limit"))) : selected.size();
+        ListMeta listMeta = new ListMetaBuilder().withContinue(to < selected.size() ? String.valueOf(to) : null).build();
+
+        Object page;
+        if (Objects.toString(exchange.getRequestHeaders().getFirst("Accept"), "").contains("as=PartialObjectMetadataList")) {
+            page = new PartialObjectMetadataListBuilder()
+                    .withMetadata(listMeta)
+                    .withItems(selected.subList(from, to).stream()
+                            .map(pod -> new PartialObjectMetadataBuilder().withMetadata(pod.getMetadata()).build())
+                            .toList())
+                    .build();
+        } else {
+            page = new PodListBuilder()
+                    .withMetadata(listMeta)
+                    .withItems(selected.subList(from, to))
+                    .build();
+        }
+
+        byte[] body = Serialization.asJson(page).getBytes(UTF_8);
+        podsTransferred.addAndGet(to - from);
+        bytesTransferred.addAndGet(body.length);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    private static boolean matches(Pod pod, String labelSelector) {
+        if (labelSelector == null) {
+            return true;
+        }
+        for (String requirement : labelSelector.split(",")) {
+            String[] keyAndValue = requirement.split("=", 2);
+            if (!keyAndValue[1].equals(pod.getMetadata().getLabels().get(keyAndValue[0]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, String> queryParameters(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String param : rawQuery.split("&")) {
+            String[] keyAndValue = param.split("=", 2);
+            params.put(URLDecoder.decode(keyAndValue[0], UTF_8), keyAndValue.length > 1 ? URLDecoder.decode(keyAndValue[1], UTF_8) : "");
+        }
+        return params;
+    }
+
+    private static Pod pod(String name, Map<String, String> labels) {
+        return new PodBuilder()
+                .withNewMetadata()
+                .withName(name)
+                .withNamespace("gocd")
+                .withLabels(labels)
+                .withCreationTimestamp(Constants.KUBERNETES_POD_CREATION_TIME_FORMAT.format(Instant.now()))
+                .endMetadata()
+                .withNewSpec()
+                .addNewContainer()
+                .withName(name)
+                .withImage("example.com/some/image:1.0")
+                .addNewEnv().withName("SOME_SETTING").withValue("some-value").endEnv()
+                .endContainer()
+                .endSpec()
+                .withNewStatus()
+                .withPhase("Running")
+                .endStatus()
+                .build();
+    }
+}
@@ -18,25 +18,35 @@ package cd.go.contrib.elasticagent;
 
 import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
+import io.fabric8.kubernetes.api.model.ListOptions;
 import io.fabric8.kubernetes.api.model.ObjectMeta;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.api.model.StatusDetails;
+import io.fabric8.kubernetes.api.model.StatusDetailsBuilder;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.dsl.MixedOperation;
 import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.informers.cache.Store;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Answers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 
 import java.time.Instant;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static cd.go.contrib.elasticagent.Constants.JOB_ID_LABEL_KEY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
@@ -78,12 +88,14 @@ public class KubernetesAgentInstancesTest {
         when(mockCreateAgentRequest.elasticProfileProperties()).thenReturn(testProperties);
         when(mockPluginSettings.getMaxPendingPods()).thenReturn(10);
         when(mockPluginSettings.getClusterRequestTimeout()).thenReturn(10000);
+        when(mockPluginSettings.getPodTerminationConcurrency()).thenReturn(10);
         when(factory.client(mockPluginSettings).get()).thenReturn(mockKubernetesClient);
         JobIdentifier jobId = new JobIdentifier("test", 1L, "Test pipeline", "test name", "1", "test job", 100L);
         when(mockCreateAgentRequest.jobIdentifier()).thenReturn(jobId);
 
         when(mockKubernetesClient.pods()).thenReturn(mockedOperation);
-        when(mockedOperation.list()).thenReturn(podList);
+        when(mockedOperation.withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)).thenReturn(mockedOperation);
+        when(mockedOperation.list(any(ListOptions.class))).thenReturn(podList);
         when(podList.getItems()).thenReturn(Collections.emptyList());
     }
 
@@ -199,7 +211,387 @@ public class KubernetesAgentInstancesTest {
         agentInstances.create(mockCreateAgentRequest, mockPluginSettings, mockPluginRequest, consoleLogAppender);
 
         InOrder inOrder = inOrder(mockKubernetesInstanceFactory, mockedOperation);
-        inOrder.verify(mockedOperation).list();
+        inOrder.verify(mockedOperation).list(any(ListOptions.class));
         inOrder.verify(mockKubernetesInstanceFactory).create(mockCreateAgentRequest, mockPluginSettings, mockKubernetesClient, mockPluginRequest);
     }
+
+    @Test
+    public void shouldTrackJobsForWhichAgentsHaveBeenCreated() {
+        KubernetesInstance kubernetesInstance = new KubernetesInstance(Instant.now(), "test", "test-agent", new HashMap<>(), 100L, PodState.Pending);
+        when(mockKubernetesInstanceFactory.create(mockCreateAgentRequest, mockPluginSettings, mockKubernetesClient, mockPluginRequest))
+                .thenThrow(new RuntimeException("Ouch!"))
+                .thenReturn(kubernetesInstance);
+
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        assertThrows(RuntimeException.class, () -> agentInstances.create(mockCreateAgentRequest, mockPluginSettings, mockPluginRequest, consoleLogAppender));
+        assertFalse(agentInstances.isAgentCreatedForJob(100L));
+
+        agentInstances.create(mockCreateAgentRequest, mockPluginSettings, mockPluginRequest, consoleLogAppender);
+        assertTrue(agentInstances.isAgentCreatedForJob(100L));
+
+        when(mockedOperation.withName("test-agent")).thenReturn(mock(PodResource.class));
+        agentInstances.terminate("test-agent", mockPluginSettings);
+        assertFalse(agentInstances.isAgentCreatedForJob(100L));
+    }
+
+    @Test
+    public void shouldStopCallingClusterOnceItsCircuitBreakerOpens() {
+        when(mockedOperation.list(any(ListOptions.class))).thenThrow(new KubernetesClientException("Connection refused"));
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+
+        for (int i = 0; i < ClusterCircuitBreaker.FAILURE_THRESHOLD + 2; i++) {
+            agentInstances.refreshAll(mockPluginSettings);
+        }
+
+        verify(mockedOperation, times(ClusterCircuitBreaker.FAILURE_THRESHOLD)).list(any(ListOptions.class));
+        assertThat(agentInstances.circuitBreaker().getState()).isEqualTo(ClusterCircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldFailFastToCreateAndTerminatePodsWhileTheCircuitBreakerIsOpen() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-1", new HashMap<>(), 1L, PodState.Running));
+        while (agentInstances.circuitBreaker().getState() != ClusterCircuitBreaker.State.OPEN) {
+            agentInstances.circuitBreaker().recordFailure();
+        }
+
+        assertThat(agentInstances.create(mockCreateAgentRequest, mockPluginSettings, mockPluginRequest, consoleLogAppender)).isNull();
+        assertThrows(IllegalStateException.class, () -> agentInstances.terminate("agent-1", mockPluginSettings));
+
+        verify(mockKubernetesInstanceFactory, never()).create(any(), any(), any(), any());
+        verify(consoleLogAppender).accept(contains("is not answering"));
+        verify(mockedOperation, never()).withName(anyString());
+        assertTrue(agentInstances.hasInstance("agent-1"));
+        assertThat(agentInstances.pendingPodCount()).isZero();
+    }
+
+    @Test
+    public void shouldCountAFailureToCreateAPodAgainstTheCircuitBreaker() {
+        when(mockKubernetesInstanceFactory.create(mockCreateAgentRequest, mockPluginSettings, mockKubernetesClient, mockPluginRequest))
+                .thenThrow(new KubernetesClientException("Connection refused"));
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+
+        assertThat(agentInstances.create(mockCreateAgentRequest, mockPluginSettings, mockPluginRequest, consoleLogAppender)).isNull();
+
+        assertThat(agentInstances.circuitBreaker().getConsecutiveFailures()).isEqualTo(1);
+        assertFalse(agentInstances.isAgentCreatedForJob(100L));
+        verify(consoleLogAppender).accept(contains("is not answering"));
+    }
+
+    @Test
+    public void shouldStillCleanUpTheClusterWhileRequestsHoldUpEveryCallToIt() throws Exception {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        CountDownLatch callsStarted = new CountDownLatch(KubernetesAgentInstances.MAX_CONCURRENT_CLUSTER_CALLS);
+        CountDownLatch releaseCalls = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(KubernetesAgentInstances.MAX_CONCURRENT_CLUSTER_CALLS);
+        try {
+            for (int i = 0; i < KubernetesAgentInstances.MAX_CONCURRENT_CLUSTER_CALLS; i++) {
+                executor.submit(() -> agentInstances.callCluster("Create Agent", mockPluginSettings, () -> {
+                    callsStarted.countDown();
+                    releaseCalls.await();
+                }));
+            }
+            assertTrue(callsStarted.await(5, TimeUnit.SECONDS));
+
+            AtomicInteger cleanups = new AtomicInteger();
+            assertFalse(agentInstances.callCluster("Create Agent", mockPluginSettings, cleanups::incrementAndGet));
+            assertTrue(agentInstances.callClusterForCleanup("Server Ping", mockPluginSettings, cleanups::incrementAndGet));
+            assertThat(cleanups.get()).isEqualTo(1);
+        } finally {
+            releaseCalls.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldKeepCountOfPendingPodsAsPodsChangeState() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+
+        agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-1", new HashMap<>(), 1L, PodState.Pending));
+        agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-2", new HashMap<>(), 2L, PodState.Pending));
+        assertThat(agentInstances.pendingPodCount()).isEqualTo(2);
+
+        agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-1", new HashMap<>(), 1L, PodState.Running));
+        assertThat(agentInstances.pendingPodCount()).isEqualTo(1);
+
+        agentInstances.forget("agent-1");
+        agentInstances.forget("agent-2");
+        agentInstances.forget("agent-3");
+        assertThat(agentInstances.pendingPodCount()).isEqualTo(0);
+
+        assertTrue(agentInstances.reservePendingPod(1));
+        assertFalse(agentInstances.reservePendingPod(1));
+        agentInstances.releasePendingPod();
+        assertTrue(agentInstances.reservePendingPod(1));
+    }
+
+    @Test
+    public void shouldKeepThePluginWideIndexOfAgentsInLineWithThePodsOfTheCluster() {
+        AgentClusterIndex agentClusterIndex = new AgentClusterIndex();
+        KubernetesAgentInstances cluster1 = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory, agentClusterIndex);
+        KubernetesAgentInstances cluster2 = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory, agentClusterIndex);
+
+        cluster1.register(new KubernetesInstance(Instant.now(), "test", "agent-1", new HashMap<>(), 1L, PodState.Running));
+        cluster2.register(new KubernetesInstance(Instant.now(), "test", "agent-2", new HashMap<>(), 2L, PodState.Running));
+        assertThat(agentClusterIndex.clusterOf("agent-1")).isSameAs(cluster1);
+        assertThat(agentClusterIndex.clusterOf("agent-2")).isSameAs(cluster2);
+
+        cluster1.forget("agent-1");
+        assertThat(agentClusterIndex.contains("agent-1")).isFalse();
+
+        cluster2.shutdown();
+        assertThat(agentClusterIndex.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldRetireThePooledClientOfTheClusterWhenShutDown() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        agentInstances.refreshAll(mockPluginSettings);
+
+        agentInstances.shutdown();
+
+        verify(factory).retire(mockPluginSettings);
+    }
+
+    @Test
+    public void shouldTerminatePodsOfDistinctJobsWithASingleDelete() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        for (long jobId = 1; jobId <= 3; jobId++) {
+            agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-" + jobId, new HashMap<>(), jobId, PodState.Running, "server-1"));
+        }
+        when(mockedOperation.withLabel(Constants.SERVER_ID_LABEL_KEY, "server-1")).thenReturn(mockedOperation);
+        when(mockedOperation.withLabelIn(eq(JOB_ID_LABEL_KEY), any(String[].class))).thenReturn(mockedOperation);
+        when(mockedOperation.delete()).thenReturn(deleted("agent-1", "agent-2", "agent-3"));
+
+        PodTerminationResult result = agentInstances.terminate(List.of("agent-1", "agent-2", "agent-3"), mockPluginSettings);
+
+        assertThat(result.terminated()).containsExactlyInAnyOrder("agent-1", "agent-2", "agent-3");
+        assertThat(result.failures()).isEmpty();
+        verify(mockedOperation).withLabel(Constants.SERVER_ID_LABEL_KEY, "server-1");
+        verify(mockedOperation).withLabelIn(JOB_ID_LABEL_KEY, "1", "2", "3");
+        verify(mockedOperation).delete();
+        verify(mockedOperation, never()).withName(anyString());
+        assertFalse(agentInstances.hasInstance("agent-1"));
+        assertFalse(agentInstances.isAgentCreatedForJob(3L));
+    }
+
+    @Test
+    public void shouldDeletePodsByNameThatALabelSelectorDeleteDidNotMatch() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        for (long jobId = 1; jobId <= 3; jobId++) {
+            agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-" + jobId, new HashMap<>(), jobId, PodState.Running, "server-1"));
+        }
+        when(mockedOperation.withLabel(Constants.SERVER_ID_LABEL_KEY, "server-1")).thenReturn(mockedOperation);
+        when(mockedOperation.withLabelIn(eq(JOB_ID_LABEL_KEY), any(String[].class))).thenReturn(mockedOperation);
+        when(mockedOperation.delete()).thenReturn(deleted("agent-1"));
+        PodResource agent2 = mock(PodResource.class);
+        PodResource agent3 = mock(PodResource.class);
+        when(mockedOperation.withName("agent-2")).thenReturn(agent2);
+        when(mockedOperation.withName("agent-3")).thenReturn(agent3);
+
+        PodTerminationResult result = agentInstances.terminate(List.of("agent-1", "agent-2", "agent-3"), mockPluginSettings);
+
+        assertThat(result.terminated()).containsExactlyInAnyOrder("agent-1", "agent-2", "agent-3");
+        verify(mockedOperation, never()).withName("agent-1");
+        verify(agent2).delete();
+        verify(agent3).delete();
+    }
+
+    @Test
+    public void shouldNotDeletePodsWithoutAServerIdByLabelSelector() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        for (long jobId = 1; jobId <= 3; jobId++) {
+            agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-" + jobId, new HashMap<>(), jobId, PodState.Running));
+        }
+        when(mockedOperation.withName(anyString())).thenReturn(mock(PodResource.class));
+
+        PodTerminationResult result = agentInstances.terminate(List.of("agent-1", "agent-2", "agent-3"), mockPluginSettings);
+
+        assertThat(result.terminated()).containsExactlyInAnyOrder("agent-1", "agent-2", "agent-3");
+        verify(mockedOperation, never()).withLabelIn(anyString(), any(String[].class));
+        verify(mockedOperation, times(3)).withName(anyString());
+    }
+
+    @Test
+    public void shouldBoundDeletesInFlightPerClusterAcrossConcurrentTerminations() throws Exception {
+        when(mockPluginSettings.getPodTerminationConcurrency()).thenReturn(2);
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        List<String> firstBatch = new ArrayList<>();
+        List<String> secondBatch = new ArrayList<>();
+        for (long jobId = 1; jobId <= 10; jobId++) {
+            agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-" + jobId, new HashMap<>(), jobId, PodState.Running));
+            (jobId <= 5 ? firstBatch : secondBatch).add("agent-" + jobId);
+        }
+
+        AtomicInteger deletesInFlight = new AtomicInteger();
+        AtomicInteger maxDeletesInFlight = new AtomicInteger();
+        PodResource podResource = mock(PodResource.class);
+        when(podResource.delete()).thenAnswer(invocation -> {
+            maxDeletesInFlight.accumulateAndGet(deletesInFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            deletesInFlight.decrementAndGet();
+            return List.of();
+        });
+        when(mockedOperation.withName(anyString())).thenReturn(podResource);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<PodTerminationResult> first = executor.submit(() -> agentInstances.terminate(firstBatch, mockPluginSettings));
+            Future<PodTerminationResult> second = executor.submit(() -> agentInstances.terminate(secondBatch, mockPluginSettings));
+
+            assertThat(first.get(5, TimeUnit.SECONDS).terminated()).containsExactlyInAnyOrderElementsOf(firstBatch);
+            assertThat(second.get(5, TimeUnit.SECONDS).terminated()).containsExactlyInAnyOrderElementsOf(secondBatch);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(maxDeletesInFlight.get()).isLessThanOrEqualTo(2);
+    }
+
+    private static List<StatusDetails> deleted(String... podNames) {
+        List<StatusDetails> deleted = new ArrayList<>();
+        for (String podName : podNames) {
+            deleted.add(new StatusDetailsBuilder().withName(podName).withKind("pods").build());
+        }
+        return deleted;
+    }
+
+    @Test
+    public void shouldTerminatePodsOneByOneAndReportFailuresPerPod() {
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        for (long jobId = 1; jobId <= 3; jobId++) {
+            agentInstances.register(new KubernetesInstance(Instant.now(), "test", "agent-" + jobId, new HashMap<>(), jobId, PodState.Running));
+        }
+        when(mockedOperation.withLabelIn(eq(JOB_ID_LABEL_KEY), any(String[].class))).thenThrow(new KubernetesClientException("Forbidden"));
+        PodResource failingPod = mock(PodResource.class);
+        when(failingPod.delete()).thenThrow(new KubernetesClientException("Ouch!"));
+        when(mockedOperation.withName(anyString())).thenReturn(mock(PodResource.class));
+        when(mockedOperation.withName("agent-2")).thenReturn(failingPod);
+
+        PodTerminationResult result = agentInstances.terminate(List.of("agent-1", "agent-2", "agent-3", "unknown-agent"), mockPluginSettings);
+
+        assertThat(result.terminated()).containsExactlyInAnyOrder("agent-1", "agent-3", "unknown-agent");
+        assertThat(result.failures()).containsOnlyKeys("agent-2");
+        assertFalse(agentInstances.hasInstance("agent-1"));
+        assertTrue(agentInstances.hasInstance("agent-2"));
+        assertFalse(agentInstances.hasInstance("agent-3"));
+    }
+
+    @Test
+    public void shouldCreatePodsConcurrentlyWhileSharingPodListings() throws Exception {
+        final int requests = 200;
+        when(mockPluginSettings.getMaxPendingPods()).thenReturn(2 * requests);
+        when(mockedOperation.list(any(ListOptions.class))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return podList;
+        });
+
+        AtomicInteger podsBeingCreated = new AtomicInteger();
+        AtomicInteger maxPodsBeingCreated = new AtomicInteger();
+        when(mockKubernetesInstanceFactory.create(any(), eq(mockPluginSettings), eq(mockKubernetesClient), eq(mockPluginRequest))).thenAnswer(invocation -> {
+            maxPodsBeingCreated.accumulateAndGet(podsBeingCreated.incrementAndGet(), Math::max);
+            Thread.sleep(50);
+            podsBeingCreated.decrementAndGet();
+            CreateAgentRequest request = invocation.getArgument(0);
+            return new KubernetesInstance(Instant.now(), "test", "test-agent-" + request.jobIdentifier().getJobId(), new HashMap<>(), request.jobIdentifier().getJobId(), PodState.Pending);
+        });
+
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<KubernetesInstance>> created = new ArrayList<>();
+            for (long jobId = 1; jobId <= requests; jobId++) {
+                CreateAgentRequest request = mock(CreateAgentRequest.class);
+                when(request.jobIdentifier()).thenReturn(new JobIdentifier("test", 1L, "Test pipeline", "test name", "1", "test job", jobId));
+                created.add(executor.submit(() -> {
+                    start.await();
+                    return agentInstances.create(request, mockPluginSettings, mockPluginRequest, consoleLogAppender);
+                }));
+            }
+            start.countDown();
+
+            for (Future<KubernetesInstance> instance : created) {
+                assertThat(instance.get(30, TimeUnit.SECONDS)).isNotNull();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify(mockKubernetesInstanceFactory, times(requests)).create(any(), any(), any(), any());
+        verify(mockedOperation, atMost(10)).list(any(ListOptions.class));
+        assertThat(maxPodsBeingCreated.get()).isGreaterThan(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldServeRefreshesFromPodInformerOnceItHasSynced() {
+        System.setProperty(KubernetesAgentInstances.POD_INFORMER_SYSTEM_PROPERTY_KEY, "true");
+        try {
+            final Pod pod = mock(Pod.class);
+            final ObjectMeta objectMeta = mock(ObjectMeta.class);
+            when(pod.getMetadata()).thenReturn(objectMeta);
+            when(objectMeta.getName()).thenReturn("test-agent");
+            when(mockKubernetesInstanceFactory.fromKubernetesPod(pod)).thenReturn(new KubernetesInstance(Instant.now(), "test", "test-agent", new HashMap<>(), 100L, PodState.Running));
+
+            SharedIndexInformer<Pod> informer = mock(SharedIndexInformer.class);
+            Store<Pod> store = mock(Store.class);
+            when(informer.isRunning()).thenReturn(true);
+            when(informer.hasSynced()).thenReturn(true);
+            when(informer.getStore()).thenReturn(store);
+            when(store.list()).thenReturn(List.of(pod));
+            when(mockedOperation.withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)).thenReturn(mockedOperation);
+            ArgumentCaptor<ResourceEventHandler<Pod>> handler = ArgumentCaptor.forClass(ResourceEventHandler.class);
+            when(mockedOperation.inform(handler.capture(), anyLong())).thenReturn(informer);
+
+            KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+            agentInstances.refreshAll(mockPluginSettings);
+            agentInstances.refreshAll(mockPluginSettings);
+
+            assertTrue(agentInstances.hasInstance("test-agent"));
+            verify(mockedOperation, times(1)).inform(any(), anyLong());
+            verify(mockedOperation, never()).list(any(ListOptions.class));
+
+            handler.getValue().onDelete(pod, false);
+            assertFalse(agentInstances.hasInstance("test-agent"));
+        } finally {
+            System.clearProperty(KubernetesAgentInstances.POD_INFORMER_SYSTEM_PROPERTY_KEY);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldRebuildPodInformerOnTheReplacementClientOnceItsClientIsRecycled() {
+        System.setProperty(KubernetesAgentInstances.POD_INFORMER_SYSTEM_PROPERTY_KEY, "true");
+        try {
+            KubernetesClientFactory.CachedClient recycledClient = mock(KubernetesClientFactory.CachedClient.class);
+            KubernetesClientFactory.CachedClient replacementClient = mock(KubernetesClientFactory.CachedClient.class);
+            when(recycledClient.get()).thenReturn(mockKubernetesClient);
+            when(replacementClient.get()).thenReturn(mockKubernetesClient);
+            when(factory.client(mockPluginSettings)).thenReturn(recycledClient, replacementClient);
+
+            SharedIndexInformer<Pod> informer = mock(SharedIndexInformer.class);
+            Store<Pod> store = mock(Store.class);
+            when(informer.isRunning()).thenReturn(true);
+            when(informer.hasSynced()).thenReturn(true);
+            when(informer.getStore()).thenReturn(store);
+            when(store.list()).thenReturn(List.of());
+            when(mockedOperation.inform(any(ResourceEventHandler.class), anyLong())).thenReturn(informer);
+
+            KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, mockKubernetesInstanceFactory);
+            agentInstances.refreshAll(mockPluginSettings);
+            agentInstances.refreshAll(mockPluginSettings);
+            verify(mockedOperation, times(1)).inform(any(), anyLong());
+
+            when(recycledClient.isRetired()).thenReturn(true);
+            agentInstances.refreshAll(mockPluginSettings);
+
+            verify(mockedOperation, times(2)).inform(any(), anyLong());
+            verify(informer).stop();
+            verify(recycledClient).close();
+            verify(replacementClient, never()).close();
+            verify(mockedOperation, never()).list(any(ListOptions.class));
+        } finally {
+            System.clearProperty(KubernetesAgentInstances.POD_INFORMER_SYSTEM_PROPERTY_KEY);
+        }
+    }
 }
@@ -18,6 +18,7 @@ package cd.go.contrib.elasticagent;
 
 import com.google.gson.Gson;
 import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.KubernetesClient;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -29,7 +30,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static cd.go.contrib.elasticagent.KubernetesClientFactory.CLIENT_RECYCLE_SYSTEM_PROPERTY_KEY;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -42,6 +50,8 @@ public class KubernetesClientFactoryTest {
     private PluginSettings emptySettings;
     private KubernetesClientFactory factory;
     private Clock.TestClock clock;
+    private final Set<KubernetesClient> unhealthyClients = new HashSet<>();
+    private boolean clustersReachable = true;
 
     @TempDir Path tempDir;
     private Path tempTokenFile;
@@ -54,7 +64,7 @@ public class KubernetesClientFactoryTest {
         System.clearProperty(CLIENT_RECYCLE_SYSTEM_PROPERTY_KEY);
 
         clock = new Clock.TestClock();
-        factory = new KubernetesClientFactory(clock);
+        factory = new KubernetesClientFactory(clock, this::probe);
         populatedSettings = PluginSettings.fromJSON(new Gson().toJson(Map.<String, Object>of(
                 "go_server_url", "https://foo.go.cd/go",
                 "auto_register_timeout", "13",
@@ -120,6 +130,10 @@ public class KubernetesClientFactoryTest {
         });
     }
 
+    private boolean probe(KubernetesClient client) {
+        return clustersReachable && !unhealthyClients.contains(client);
+    }
+
     private Executable withAutoConfigurationValuesAvailable() {
         return with(new EnvironmentVariables()
                         .set(Config.KUBERNETES_SERVICE_HOST_PROPERTY, "default.cluster")
@@ -139,21 +153,25 @@ public class KubernetesClientFactoryTest {
         assertThat(client.leases()).isEqualTo(0);
 
         clock.set(Instant.now().plus(1, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
         assertEquals(client, client2);
         client2.close();
 
         clock.set(Instant.now().plus(2, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client3 = factory.client(populatedSettings);
         assertEquals(client, client3);
         client3.close();
 
         clock.set(Instant.now().plus(5, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client4 = factory.client(populatedSettings);
         assertEquals(client, client4);
         client4.close();
 
         clock.set(Instant.now().plus(9, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client5 = factory.client(populatedSettings);
         assertEquals(client, client5);
         client5.close();
@@ -167,12 +185,14 @@ public class KubernetesClientFactoryTest {
         assertThat(client.leases()).isEqualTo(0);
 
         clock.set(Instant.now().plus(9, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
         assertEquals(client, client2);
         client.close();
         assertThat(client.leases()).isEqualTo(0);
 
         clock.set(Instant.now().plus(11, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient clientAfterTimeElapse = factory.client(populatedSettings);
         assertNotEquals(client, clientAfterTimeElapse);
         clientAfterTimeElapse.close();
@@ -190,11 +210,13 @@ public class KubernetesClientFactoryTest {
         client.close();
 
         clock.set(Instant.now().plus(1, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
         assertEquals(client, client2);
         client.close();
 
         clock.set(Instant.now().plus(3, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient clientAfterTimeElapse = factory.client(populatedSettings);
         assertNotEquals(client, clientAfterTimeElapse);
         clientAfterTimeElapse.close();
@@ -225,21 +247,67 @@ public class KubernetesClientFactoryTest {
         client.close();
 
         clock.set(Instant.now().plus(1, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
         assertEquals(client, client2);
         client.close();
 
         clock.set(Instant.now().plus(9, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient client3 = factory.client(populatedSettings);
         assertEquals(client, client3);
         client.close();
 
         clock.set(Instant.now().plus(11, ChronoUnit.MINUTES));
+        factory.maintainClients();
         KubernetesClientFactory.CachedClient clientAfterTimeElapse = factory.client(populatedSettings);
         assertNotEquals(client, clientAfterTimeElapse);
         clientAfterTimeElapse.close();
     }
 
+    @Test
+    public void shouldRemoveClientThatWasNotLeasedSinceItWasCreatedInsteadOfRecyclingIt() {
+        KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+        client.close();
+        clustersReachable = false;
+
+        clock.set(Instant.now().plus(11, ChronoUnit.MINUTES));
+        factory.maintainClients();
+
+        assertThat(factory.poolSize()).isZero();
+        assertThat(client.isRetired()).isTrue();
+        assertThat(client.isClosed()).isTrue();
+    }
+
+    @Test
+    public void shouldRecycleRatherThanRemoveClientThatIsStillLeased() {
+        KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+
+        clock.set(Instant.now().plus(11, ChronoUnit.MINUTES));
+        factory.maintainClients();
+
+        assertThat(factory.poolSize()).isEqualTo(1);
+        assertThat(client.isRetired()).isTrue();
+        assertThat(client.isClosed()).isFalse();
+        client.close();
+        assertThat(client.isClosed()).isTrue();
+    }
+
+    @Test
+    public void shouldRetireTheClientOfARemovedClusterProfile() {
+        KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+        KubernetesClientFactory.CachedClient otherClient = factory.client(emptySettings);
+
+        factory.retire(populatedSettings);
+
+        assertThat(factory.poolSize()).isEqualTo(1);
+        assertThat(client.isRetired()).isTrue();
+        assertThat(client.isClosed()).isFalse();
+        client.close();
+        assertThat(client.isClosed()).isTrue();
+        assertEquals(otherClient, factory.client(emptySettings));
+    }
+
     @Test
     public void shouldAllowExplicitlyClearingClient() {
         KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
@@ -275,28 +343,140 @@ public class KubernetesClientFactoryTest {
     }
 
     @Test
-    public void shouldCloseStaleClientWhenSwappingClientImmediatelyIfLeasesAreZero() {
+    public void shouldKeepClientsForEachClusterWhenSwappingBetweenClusters() {
+        PluginSettings firstCluster = populatedSettings;
+        KubernetesClientFactory.CachedClient client = factory.client(firstCluster);
+        client.close();
+
+        changeCluster();
+        KubernetesClientFactory.CachedClient otherClient = factory.client(populatedSettings);
+        otherClient.close();
+        assertNotEquals(client, otherClient);
+        assertThat(client.isClosed()).isFalse();
+        assertThat(factory.poolSize()).isEqualTo(2);
+
+        KubernetesClientFactory.CachedClient sameClient = factory.client(firstCluster);
+        assertEquals(client, sameClient);
+        sameClient.close();
+    }
+
+    @Test
+    public void shouldCloseLeastRecentlyUsedClientImmediatelyWhenPoolIsFullIfLeasesAreZero() {
+        System.setProperty(KubernetesClientFactory.CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY, "2");
+        try {
+            factory = new KubernetesClientFactory(clock, this::probe);
+            KubernetesClientFactory.CachedClient leastRecentlyUsed = factory.client(populatedSettings);
+            leastRecentlyUsed.close();
+
+            clock.set(Instant.now().plus(1, ChronoUnit.MINUTES));
+            factory.maintainClients();
+            changeCluster();
+            KubernetesClientFactory.CachedClient second = factory.client(populatedSettings);
+            second.close();
+
+            clock.set(Instant.now().plus(2, ChronoUnit.MINUTES));
+            factory.maintainClients();
+            changeCluster();
+            KubernetesClientFactory.CachedClient third = factory.client(populatedSettings);
+            third.close();
+
+            assertThat(factory.poolSize()).isEqualTo(2);
+            assertThat(leastRecentlyUsed.isClosed()).isTrue();
+            assertThat(second.isClosed()).isFalse();
+            assertThat(third.isClosed()).isFalse();
+        } finally {
+            System.clearProperty(KubernetesClientFactory.CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY);
+        }
+    }
+
+    @Test
+    public void shouldCloseEvictedClientOnlyWhenLeasesLaterBecomeZero() {
+        System.setProperty(KubernetesClientFactory.CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY, "1");
+        try {
+            factory = new KubernetesClientFactory(clock, this::probe);
+            KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+            assertThat(client.leases()).isEqualTo(1);
+
+            changeCluster();
+            KubernetesClientFactory.CachedClient otherClient = factory.client(populatedSettings);
+            assertNotEquals(client, otherClient);
+            assertThat(client.isClosed()).isFalse();
+
+            client.close();
+            assertThat(client.isClosed()).isTrue();
+            otherClient.close();
+            assertThat(otherClient.isClosed()).isFalse();
+        } finally {
+            System.clearProperty(KubernetesClientFactory.CLIENT_POOL_SIZE_SYSTEM_PROPERTY_KEY);
+        }
+    }
+
+    @Test
+    public void shouldNotRecycleClientOnTheRequestPath() {
         KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
         client.close();
-        assertThat(client.leases()).isEqualTo(0);
+
+        clock.set(Instant.now().plus(11, ChronoUnit.MINUTES));
+        KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
+        assertEquals(client, client2);
+        client2.close();
         assertThat(client.isClosed()).isFalse();
+    }
 
-        changeCluster();
-        assertNotEquals(client, factory.client(populatedSettings));
+    @Test
+    public void shouldReplaceClientThatFailsItsHealthProbe() {
+        KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+        unhealthyClients.add(client.get());
+
+        factory.maintainClients();
+        KubernetesClientFactory.CachedClient replacement = factory.client(populatedSettings);
+        assertNotEquals(client, replacement);
+        assertThat(client.isClosed()).isFalse();
+
+        client.close();
         assertThat(client.isClosed()).isTrue();
+        replacement.close();
+        assertThat(replacement.isClosed()).isFalse();
     }
 
     @Test
-    public void shouldCloseStaleClientWhenSwappingClientOnlyWhenLeasesLaterBecomeZero() {
+    public void shouldKeepClientWhenItsReplacementFailsItsHealthProbeToo() {
         KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
-        assertThat(client.leases()).isEqualTo(1);
-        assertThat(client.isClosed()).isFalse();
+        client.close();
+        clustersReachable = false;
 
-        changeCluster();
-        assertNotEquals(client, factory.client(populatedSettings));
+        factory.maintainClients();
+        KubernetesClientFactory.CachedClient client2 = factory.client(populatedSettings);
+        assertEquals(client, client2);
+        client2.close();
         assertThat(client.isClosed()).isFalse();
+    }
 
+    @Test
+    public void shouldCountLeasesAcquiredConcurrently() throws Exception {
+        KubernetesClientFactory.CachedClient client = factory.client(populatedSettings);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> leases = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                leases.add(executor.submit(() -> {
+                    try (KubernetesClientFactory.CachedClient lease = factory.client(populatedSettings)) {
+                        assertEquals(client, lease);
+                    }
+                }));
+            }
+            for (Future<?> lease : leases) {
+                lease.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(client.leases()).isEqualTo(1);
+        factory.clearOutExistingClient();
+        assertThat(client.isClosed()).isFalse();
         client.close();
+        assertThat(client.leases()).isEqualTo(0);
         assertThat(client.isClosed()).isTrue();
     }
 }
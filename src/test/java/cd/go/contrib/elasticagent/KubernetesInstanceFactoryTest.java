@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.contrib.elasticagent;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Pod;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class KubernetesInstanceFactoryTest {
+    @Test
+    public void shouldCompileAPodSpecTemplateOnceAndRenderItForEveryPod() {
+        String podSpec = "metadata:\n  name: pod-name-prefix-{{ POD_POSTFIX }}\nimage: {{ GOCD_AGENT_IMAGE }}:{{ LATEST_VERSION }}\n";
+
+        assertThat(KubernetesInstanceFactory.compiledPodSpecTemplate(podSpec))
+                .isSameAs(KubernetesInstanceFactory.compiledPodSpecTemplate(podSpec));
+
+        String first = KubernetesInstanceFactory.getTemplatedPodSpec(podSpec);
+        String second = KubernetesInstanceFactory.getTemplatedPodSpec(podSpec);
+        assertThat(first).contains("gocd-agent-wolfi:v25.4.0").doesNotContain("{{");
+        assertThat(first).isNotEqualTo(second);
+    }
+
+    @Test
+    public void shouldBoundTheNumberOfCompiledPodSpecTemplates() {
+        for (int i = 0; i < KubernetesInstanceFactory.MAX_CACHED_POD_SPEC_TEMPLATES * 2; i++) {
+            KubernetesInstanceFactory.getTemplatedPodSpec("name: pod-" + i + "-{{ POD_POSTFIX }}");
+        }
+
+        assertThat(KubernetesInstanceFactory.compiledPodSpecTemplateCount()).isEqualTo(KubernetesInstanceFactory.MAX_CACHED_POD_SPEC_TEMPLATES);
+    }
+
+    @Test
+    public void shouldBuildFreshPodsWithNewPostfixesFromAPodSpecPrototype() throws IOException {
+        String podSpec = """
+                apiVersion: v1
+                kind: Pod
+                metadata:
+                  name: pod-name-prefix-{{ POD_POSTFIX }}
+                  labels:
+                    app: web
+                    agent-{{ POD_POSTFIX }}: "true"
+                spec:
+                  containers:
+                  - name: gocd-agent-container-{{ CONTAINER_POSTFIX }}
+                    image: {{ GOCD_AGENT_IMAGE }}:{{ LATEST_VERSION }}
+                    args:
+                    - --name={{ POD_POSTFIX }}
+                """;
+
+        Pod first = KubernetesInstanceFactory.buildPod(podSpec, KubernetesInstanceFactory.YAML_MAPPER);
+        Pod second = KubernetesInstanceFactory.buildPod(podSpec, KubernetesInstanceFactory.YAML_MAPPER);
+
+        String podPostfix = first.getMetadata().getName().substring("pod-name-prefix-".length());
+        Container container = first.getSpec().getContainers().get(0);
+        assertThat(podPostfix).hasSize(36);
+        assertThat(first.getMetadata().getLabels()).containsEntry("app", "web").containsEntry("agent-" + podPostfix, "true").hasSize(2);
+        assertThat(container.getName()).startsWith("gocd-agent-container-").doesNotContain(podPostfix);
+        assertThat(container.getImage()).endsWith("gocd-agent-wolfi:v25.4.0");
+        assertThat(container.getArgs()).containsExactly("--name=" + podPostfix);
+
+        assertThat(second.getMetadata().getName()).isNotEqualTo(first.getMetadata().getName());
+        assertThat(second.getSpec().getContainers().get(0).getName()).isNotEqualTo(container.getName());
+
+        first.getMetadata().getLabels().put("mutated", "true");
+        assertThat(second.getMetadata().getLabels()).doesNotContainKey("mutated");
+    }
+
+    @Test
+    public void shouldBuildPodsFromJsonPodSpecs() throws IOException {
+        String podSpec = "{\"apiVersion\": \"v1\", \"kind\": \"Pod\", \"metadata\": {\"name\": \"pod-{{ POD_POSTFIX }}\"}}";
+
+        Pod pod = KubernetesInstanceFactory.buildPod(podSpec, KubernetesInstanceFactory.JSON_MAPPER);
+
+        assertThat(pod.getMetadata().getName()).startsWith("pod-").hasSize("pod-".length() + 36);
+    }
+}
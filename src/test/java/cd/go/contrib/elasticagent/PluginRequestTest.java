@@ -21,9 +21,13 @@ import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
 import com.thoughtworks.go.plugin.api.response.DefaultGoApiResponse;
 import org.junit.jupiter.api.Test;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.*;
 
 public class PluginRequestTest {
     @Test
@@ -36,4 +40,62 @@ public class PluginRequestTest {
         final PluginRequest pluginRequest = new PluginRequest(accessor);
         pluginRequest.appendToConsoleLog(jobIdentifier, "text1");
     }
+
+    @Test
+    public void shouldOnlyAskTheServerForServerInfoOnceItIsStale() {
+        GoApplicationAccessor accessor = mock(GoApplicationAccessor.class);
+        when(accessor.submit(any())).thenReturn(
+                DefaultGoApiResponse.success("{\"secure_site_url\": \"https://first.example.com\"}"),
+                DefaultGoApiResponse.success("{\"secure_site_url\": \"https://second.example.com\"}"));
+        Clock.TestClock clock = new Clock.TestClock();
+        Instant start = clock.now();
+        PluginRequest pluginRequest = new PluginRequest(accessor, Runnable::run, clock);
+
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://first.example.com");
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://first.example.com");
+        verify(accessor, times(1)).submit(any());
+
+        clock.set(start.plus(PluginRequest.SERVER_INFO_TTL).plusSeconds(1));
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://first.example.com");
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://second.example.com");
+        verify(accessor, times(2)).submit(any());
+    }
+
+    @Test
+    public void shouldRefetchServerInfoWhenInvalidated() {
+        GoApplicationAccessor accessor = mock(GoApplicationAccessor.class);
+        when(accessor.submit(any())).thenReturn(
+                DefaultGoApiResponse.success("{\"secure_site_url\": \"https://first.example.com\"}"),
+                DefaultGoApiResponse.success("{\"secure_site_url\": \"https://second.example.com\"}"));
+        List<Runnable> refreshes = new ArrayList<>();
+        PluginRequest pluginRequest = new PluginRequest(accessor, refreshes::add, new Clock.TestClock());
+
+        pluginRequest.prefetchServerInfo();
+        refreshes.remove(0).run();
+        pluginRequest.invalidateServerInfo();
+        refreshes.remove(0).run();
+
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://second.example.com");
+        verify(accessor, times(2)).submit(any());
+    }
+
+    @Test
+    public void shouldNotCacheServerInfoFetchedBeforeAnInvalidation() {
+        GoApplicationAccessor accessor = mock(GoApplicationAccessor.class);
+        List<Runnable> refreshes = new ArrayList<>();
+        PluginRequest pluginRequest = new PluginRequest(accessor, refreshes::add, new Clock.TestClock());
+        when(accessor.submit(any())).thenAnswer(invocation -> {
+            // Invalidated while the first refresh waits for the server.
+            pluginRequest.invalidateServerInfo();
+            return DefaultGoApiResponse.success("{\"secure_site_url\": \"https://first.example.com\"}");
+        }).thenReturn(DefaultGoApiResponse.success("{\"secure_site_url\": \"https://second.example.com\"}"));
+
+        pluginRequest.prefetchServerInfo();
+        refreshes.remove(0).run();
+
+        // The invalidation's own refresh was skipped while the first one ran, and follows it instead.
+        assertThat(refreshes).hasSize(1);
+        assertThat(pluginRequest.cachedServerInfo().getSecureSiteUrl()).isEqualTo("https://second.example.com");
+        verify(accessor, times(2)).submit(any());
+    }
 }
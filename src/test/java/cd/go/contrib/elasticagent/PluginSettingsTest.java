@@ -37,6 +37,9 @@ public class PluginSettingsTest {
         pluginSettingsMap.put("kubernetes_cluster_ca_cert", "foo-ca-certs");
         pluginSettingsMap.put("namespace", "gocd");
         pluginSettingsMap.put("cluster_request_timeout", "60000");
+        pluginSettingsMap.put("pod_termination_concurrency", "25");
+        pluginSettingsMap.put("api_qps", "5");
+        pluginSettingsMap.put("api_burst", "10");
 
         PluginSettings pluginSettings = PluginSettings.fromJSON(new Gson().toJson(pluginSettingsMap));
 
@@ -48,7 +51,9 @@ public class PluginSettingsTest {
         assertThat(pluginSettings.getSecurityToken()).isEqualTo("foo-token");
         assertThat(pluginSettings.getNamespace()).isEqualTo("gocd");
         assertThat(pluginSettings.getClusterRequestTimeout()).isEqualTo(60000);
-
+        assertThat(pluginSettings.getPodTerminationConcurrency()).isEqualTo(25);
+        assertThat(pluginSettings.getApiQps()).isEqualTo(5);
+        assertThat(pluginSettings.getApiBurst()).isEqualTo(10);
     }
 
     @Test
@@ -87,6 +92,9 @@ public class PluginSettingsTest {
         assertThat(pluginSettings.getCaCertData()).isNull();
         assertThat(pluginSettings.getSecurityToken()).isNull();
         assertThat(pluginSettings.getClusterRequestTimeout()).isEqualTo(10000);
+        assertThat(pluginSettings.getPodTerminationConcurrency()).isEqualTo(10);
+        assertThat(pluginSettings.getApiQps()).isEqualTo(50);
+        assertThat(pluginSettings.getApiBurst()).isEqualTo(100);
     }
 
     @Test
@@ -16,6 +16,8 @@
 
 package cd.go.contrib.elasticagent.builders;
 
+import cd.go.contrib.elasticagent.AgentTeardownQueue;
+import cd.go.contrib.elasticagent.ClusterCircuitBreaker;
 import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.model.KubernetesCluster;
 import cd.go.contrib.elasticagent.model.KubernetesNode;
@@ -59,4 +61,34 @@ public class PluginStatusReportViewBuilderTest {
         assertThat(link.attr("href")).isEqualTo("/go/admin/status_reports/cd.go.contrib.elastic.agent.kubernetes/agent/?job_id=3243546575676657");
     }
 
+    @Test
+    public void shouldBuildStatusReportHtmlWithAgentTeardownQueueStats() throws IOException, TemplateException {
+        AgentTeardownQueue.Stats teardown = mock(AgentTeardownQueue.Stats.class);
+        when(teardown.getQueueDepth()).thenReturn(3);
+        when(teardown.getCompleted()).thenReturn(1200L);
+        when(teardown.getAverageLatencyMillis()).thenReturn(850L);
+
+        KubernetesCluster cluster = mock(KubernetesCluster.class);
+        when(cluster.getTeardown()).thenReturn(teardown);
+        PluginStatusReportViewBuilder builder = PluginStatusReportViewBuilder.instance();
+
+        Document document = Jsoup.parse(builder.build(builder.getTemplate("status-report.template.ftlh"), cluster));
+
+        assertThat(document.select("dd").eachText()).contains("3", "1200", "850 ms");
+    }
+
+    @Test
+    public void shouldBuildStatusReportHtmlWithCircuitBreakerState() throws IOException, TemplateException {
+        ClusterCircuitBreaker circuitBreaker = mock(ClusterCircuitBreaker.class);
+        when(circuitBreaker.getState()).thenReturn(ClusterCircuitBreaker.State.HALF_OPEN);
+        when(circuitBreaker.getConsecutiveFailures()).thenReturn(4);
+
+        KubernetesCluster cluster = mock(KubernetesCluster.class);
+        when(cluster.getCircuitBreaker()).thenReturn(circuitBreaker);
+        PluginStatusReportViewBuilder builder = PluginStatusReportViewBuilder.instance();
+
+        Document document = Jsoup.parse(builder.build(builder.getTemplate("status-report.template.ftlh"), cluster));
+
+        assertThat(document.select("dd").eachText()).contains("HALF_OPEN", "4");
+    }
 }
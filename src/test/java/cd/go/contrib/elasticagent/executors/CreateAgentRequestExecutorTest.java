@@ -19,10 +19,12 @@ package cd.go.contrib.elasticagent.executors;
 import cd.go.contrib.elasticagent.*;
 import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
+import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 import org.junit.jupiter.api.Test;
 
 import java.util.HashMap;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
@@ -38,7 +40,7 @@ public class CreateAgentRequestExecutorTest {
         PluginRequest pluginRequest = mock(PluginRequest.class);
         new CreateAgentRequestExecutor(request, agentInstances, pluginRequest).execute();
 
-        verify(pluginRequest).appendToConsoleLog(eq(jobIdentifier), contains("Received request to create a pod for job"));
+        verify(pluginRequest, timeout(5000)).appendToConsoleLog(eq(jobIdentifier), contains("Received request to create a pod for job"));
         verify(agentInstances).create(eq(request), eq(request.clusterProfileProperties()), eq(pluginRequest), any(ConsoleLogAppender.class));
     }
 
@@ -56,7 +58,26 @@ public class CreateAgentRequestExecutorTest {
 
         assertThrows(Exception.class, () -> new CreateAgentRequestExecutor(request, agentInstances, pluginRequest).execute());
 
-        verify(pluginRequest).appendToConsoleLog(any(), contains("Received request to create a pod for job"));
-        verify(pluginRequest).appendToConsoleLog(any(), contains("Failed to create agent pod"));
+        verify(pluginRequest, timeout(5000)).appendToConsoleLog(any(), contains("Received request to create a pod for job"));
+        verify(pluginRequest, timeout(5000)).appendToConsoleLog(any(), contains("Failed to create agent pod"));
+    }
+
+    @Test
+    public void shouldNotAskToCreateAnAgentWhenOneIsAlreadyScheduledForTheJob() {
+        final HashMap<String, String> elasticAgentProfileProperties = new HashMap<>();
+        elasticAgentProfileProperties.put("Image", "image1");
+        ClusterProfileProperties clusterProfileProperties = new ClusterProfileProperties("http://go-server", "http://k8ssvc.url", "");
+        final JobIdentifier jobIdentifier = new JobIdentifier("p1", 1L, "l1", "s1", "1", "j1", 1L);
+        CreateAgentRequest request = new CreateAgentRequest("key1", elasticAgentProfileProperties, "env1", jobIdentifier, clusterProfileProperties);
+        AgentInstances<KubernetesInstance> agentInstances = mock(KubernetesAgentInstances.class);
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+
+        when(agentInstances.isAgentCreatedForJob(1L)).thenReturn(true);
+
+        GoPluginApiResponse response = new CreateAgentRequestExecutor(request, agentInstances, pluginRequest).execute();
+
+        assertEquals(200, response.responseCode());
+        verify(pluginRequest, timeout(5000)).appendToConsoleLog(eq(jobIdentifier), contains("An agent pod has already been scheduled for job"));
+        verify(agentInstances, never()).create(any(), any(), any(), any());
     }
 }
@@ -99,6 +99,27 @@ public class GetClusterProfileMetadataExecutorTest {
                       "required": false,
                       "secure": false
                     }
+                  },
+                  {
+                    "key": "pod_termination_concurrency",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "api_qps",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
+                  },
+                  {
+                    "key": "api_burst",
+                    "metadata": {
+                      "required": false,
+                      "secure": false
+                    }
                   }
                 ]""";
 
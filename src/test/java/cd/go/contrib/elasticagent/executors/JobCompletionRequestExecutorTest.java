@@ -32,8 +32,8 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
-import static org.mockito.Mockito.inOrder;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.openMocks;
 
 public class JobCompletionRequestExecutorTest {
@@ -61,6 +61,8 @@ public class JobCompletionRequestExecutorTest {
 
         GoPluginApiResponse response = executor.execute();
 
+        assertEquals(200, response.responseCode());
+        verify(mockPluginRequest, timeout(5000)).deleteAgents(anyList());
         InOrder inOrder = inOrder(mockPluginRequest, mockAgentInstances);
 
         inOrder.verify(mockPluginRequest).disableAgents(agentsArgumentCaptor.capture());
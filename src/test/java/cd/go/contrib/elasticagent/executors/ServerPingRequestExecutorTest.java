@@ -18,6 +18,7 @@ package cd.go.contrib.elasticagent.executors;
 
 import cd.go.contrib.elasticagent.*;
 import cd.go.contrib.elasticagent.requests.ServerPingRequest;
+import io.fabric8.kubernetes.api.model.ListOptions;
 import io.fabric8.kubernetes.api.model.ObjectMeta;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodList;
@@ -30,11 +31,16 @@ import org.mockito.Answers;
 import org.mockito.Mock;
 import org.mockito.stubbing.Answer;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static cd.go.contrib.elasticagent.Constants.JOB_ID_LABEL_KEY;
+import static java.time.temporal.ChronoUnit.HOURS;
 import static java.time.temporal.ChronoUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
@@ -52,6 +58,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
     @Mock
     private PodResource podResource;
     private ObjectMeta objectMetadata;
+    private final AgentClusterIndex agentClusterIndex = new AgentClusterIndex();
 
     @BeforeEach
     public void setUp() {
@@ -76,7 +83,9 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         when(mockedPod.getMetadata()).thenReturn(objectMetadata);
 
         final PodList podList = mock(PodList.class);
-        when(mockedOperation.list()).thenReturn(podList);
+        when(mockedOperation.withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)).thenReturn(mockedOperation);
+        when(mockedOperation.withLabelIn(eq(JOB_ID_LABEL_KEY), any(String[].class))).thenReturn(mockedOperation);
+        when(mockedOperation.list(any(ListOptions.class))).thenReturn(podList);
         when(podList.getItems()).thenReturn(Collections.emptyList());
     }
 
@@ -100,7 +109,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         final Agents allAgentsInitially = new Agents(Arrays.asList(agent1, agent2, agent3));
         final Agents allAgentsAfterDisablingIdleAgents = new Agents(Arrays.asList(agent1AfterDisabling, agent2, agent3));
 
-        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory);
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
         agentInstances.register(k8sPodForAgent1);
         agentInstances.register(k8sPodForAgent2);
         agentInstances.register(k8sPodForAgent3);
@@ -117,11 +126,13 @@ public class ServerPingRequestExecutorTest extends BaseTest {
 
         assertTrue(clusterSpecificInstances.get(clusterProfileProperties.uuid()).hasInstance(k8sPodForAgent1.podName()));
 
-        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, pluginRequest).execute();
 
         verify(pluginRequest, atLeastOnce()).disableAgents(Collections.singletonList(agent1));
         verify(pluginRequest, atLeastOnce()).deleteAgents(Collections.singletonList(agent1AfterDisabling));
         assertFalse(clusterSpecificInstances.get(clusterProfileProperties.uuid()).hasInstance(k8sPodForAgent1.podName()));
+        // Listed once, and once more after disabling agents
+        verify(pluginRequest, times(2)).listAgents();
     }
 
     @Test
@@ -155,18 +166,12 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         KubernetesInstance k8sPodForAgent5 = new KubernetesInstance(Instant.now(), null, agentId5, Collections.emptyMap(), 2L, PodState.Running);
         KubernetesInstance k8sPodForAgent6 = new KubernetesInstance(Instant.now().minus(100, MINUTES), null, agentId6, Collections.emptyMap(), 3L, PodState.Running);
 
-        final Agents allAgentsInitially = new Agents(Arrays.asList(agent1, agent2, agent3, agent4, agent5, agent6));
-        final Agents allAgentsAfterDisablingIdleAgentsFromCluster1 = new Agents(Arrays.asList(agent1AfterDisabling, agent2, agent3, agent4, agent5, agent6));
-        final Agents allAgentsAfterTerminatingIdleAgentsFromCluster1 = new Agents(Arrays.asList(agent2, agent3, agent4, agent5, agent6));
-        final Agents allAgentsAfterDisablingIdleAgentsFromCluster2 = new Agents(Arrays.asList(agent2, agent3, agent4AfterDisabling, agent5, agent6));
-        final Agents allAgentsAfterTerminatingIdleAgentsFromCluster2 = new Agents(Arrays.asList(agent2, agent3, agent5, agent6));
-
-        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory);
+        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
         agentInstancesForCluster1.register(k8sPodForAgent1);
         agentInstancesForCluster1.register(k8sPodForAgent2);
         agentInstancesForCluster1.register(k8sPodForAgent3);
 
-        KubernetesAgentInstances agentInstancesForCluster2 = new KubernetesAgentInstances(factory);
+        KubernetesAgentInstances agentInstancesForCluster2 = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
         agentInstancesForCluster2.register(k8sPodForAgent4);
         agentInstancesForCluster2.register(k8sPodForAgent5);
         agentInstancesForCluster2.register(k8sPodForAgent6);
@@ -178,23 +183,123 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
         when(serverPingRequest.allClusterProfileProperties()).thenReturn(Arrays.asList(clusterProfilePropertiesForCluster1, clusterProfilePropertiesForCluster2));
 
-        PluginRequest pluginRequest = mock(PluginRequest.class);
-
-        when(pluginRequest.listAgents()).thenReturn(allAgentsInitially, allAgentsAfterDisablingIdleAgentsFromCluster1, allAgentsAfterTerminatingIdleAgentsFromCluster1, allAgentsAfterDisablingIdleAgentsFromCluster2, allAgentsAfterTerminatingIdleAgentsFromCluster2, new Agents());
+        // Clusters are cleaned up in parallel, so the server's agents are kept as state rather than stubbed in sequence.
+        PluginRequest pluginRequest = pluginRequestWithRegisteredAgents(agent1, agent2, agent3, agent4, agent5, agent6);
 
         assertTrue(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sPodForAgent1.podName()));
         assertTrue(clusterSpecificInstances.get(clusterProfilePropertiesForCluster2.uuid()).hasInstance(k8sPodForAgent4.podName()));
 
-        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, pluginRequest).execute();
 
-        verify(pluginRequest, atLeastOnce()).disableAgents(Collections.singletonList(agent1));
-        verify(pluginRequest, atLeastOnce()).deleteAgents(Collections.singletonList(agent1AfterDisabling));
-
-        verify(pluginRequest, atLeastOnce()).disableAgents(Collections.singletonList(agent4));
-        verify(pluginRequest, atLeastOnce()).deleteAgents(Collections.singletonList(agent4AfterDisabling));
+        verify(pluginRequest).disableAgents(argThat(agents -> agents.size() == 2 && agents.containsAll(List.of(agent1, agent4))));
+        verify(pluginRequest).deleteAgents(argThat(agents -> agents.size() == 2 && agents.containsAll(List.of(agent1AfterDisabling, agent4AfterDisabling))));
 
         assertFalse(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sPodForAgent1.podName()));
         assertFalse(clusterSpecificInstances.get(clusterProfilePropertiesForCluster2.uuid()).hasInstance(k8sPodForAgent4.podName()));
+        assertThat(pluginRequest.listAgents().agents()).containsExactlyInAnyOrder(agent2, agent3, agent5, agent6);
+    }
+
+    @Test
+    public void shouldDeferWorkThatDoesNotFitInTheTimeBudgetToTheNextPing() throws Exception {
+        ClusterProfileProperties clusterProfileProperties = createClusterProfileProperties();
+
+        Agent disabledAgent = new Agent("disabled-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Disabled);
+        Agent idleAgent = new Agent("idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
+        agentInstances.register(new KubernetesInstance(Instant.now().minus(100, MINUTES), null, disabledAgent.elasticAgentId(), Collections.emptyMap(), 1L, PodState.Running));
+        agentInstances.register(new KubernetesInstance(Instant.now().minus(100, MINUTES), null, idleAgent.elasticAgentId(), Collections.emptyMap(), 2L, PodState.Running));
+        Map<String, KubernetesAgentInstances> clusterSpecificInstances = Map.of(clusterProfileProperties.uuid(), agentInstances);
+
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(List.of(clusterProfileProperties));
+        PluginRequest pluginRequest = pluginRequestWithRegisteredAgents(disabledAgent, idleAgent);
+        DeferredPingWork deferredWork = new DeferredPingWork();
+
+        // The budget runs out straight after the ping starts.
+        Instant start = Instant.now();
+        AtomicInteger clockReads = new AtomicInteger();
+        Clock runningOutOfTime = () -> clockReads.getAndIncrement() == 0 ? start : start.plus(1, HOURS);
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, pluginRequest, deferredWork, runningOutOfTime, Duration.ofMinutes(1)).execute();
+
+        verify(pluginRequest, never()).disableAgents(anyCollection());
+        verify(pluginRequest, never()).deleteAgents(anyCollection());
+        assertTrue(agentInstances.hasInstance(disabledAgent.elasticAgentId()));
+        List<DeferredPingWork.Item> deferred = deferredWork.drain();
+        assertThat(deferred)
+                .extracting(DeferredPingWork.Item::kind, DeferredPingWork.Item::agentIds)
+                .containsExactly(
+                        tuple(DeferredPingWork.Kind.TERMINATE_STALE_PODS, List.of(disabledAgent.elasticAgentId())),
+                        tuple(DeferredPingWork.Kind.DISABLE_IDLE_AGENTS, List.of(idleAgent.elasticAgentId())));
+        deferred.forEach(item -> deferredWork.defer(item.kind(), item.clusterUuid(), item.agentIds()));
+
+        // The next ping has time to spare, and resumes the deferred work before the agent that became idle since.
+        Agent newIdleAgent = new Agent("new-idle-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Enabled);
+        agentInstances.register(new KubernetesInstance(Instant.now().minus(100, MINUTES), null, newIdleAgent.elasticAgentId(), Collections.emptyMap(), 3L, PodState.Running));
+        PluginRequest nextPluginRequest = pluginRequestWithRegisteredAgents(newIdleAgent, disabledAgent, idleAgent);
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, nextPluginRequest, deferredWork, Clock.DEFAULT, Duration.ofMinutes(1)).execute();
+
+        verify(nextPluginRequest).disableAgents(List.of(idleAgent, newIdleAgent));
+        assertFalse(agentInstances.hasInstance(disabledAgent.elasticAgentId()));
+        assertFalse(agentInstances.hasInstance(idleAgent.elasticAgentId()));
+        assertFalse(agentInstances.hasInstance(newIdleAgent.elasticAgentId()));
+        assertThat(nextPluginRequest.listAgents().agents()).isEmpty();
+        assertThat(deferredWork.size()).isZero();
+    }
+
+    @Test
+    public void shouldDeferCarriedOverWorkAgainWhenTheClusterIsSkipped() throws Exception {
+        ClusterProfileProperties clusterProfileProperties = createClusterProfileProperties();
+        Agent disabledAgent = new Agent("disabled-agent", Agent.AgentState.Idle, Agent.BuildState.Idle, Agent.ConfigState.Disabled);
+
+        KubernetesAgentInstances agentInstances = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
+        agentInstances.register(new KubernetesInstance(Instant.now().minus(100, MINUTES), null, disabledAgent.elasticAgentId(), Collections.emptyMap(), 1L, PodState.Running));
+        while (agentInstances.circuitBreaker().getState() != ClusterCircuitBreaker.State.OPEN) {
+            agentInstances.circuitBreaker().recordFailure();
+        }
+
+        ServerPingRequest serverPingRequest = mock(ServerPingRequest.class);
+        when(serverPingRequest.allClusterProfileProperties()).thenReturn(List.of(clusterProfileProperties));
+        PluginRequest pluginRequest = pluginRequestWithRegisteredAgents(disabledAgent);
+        DeferredPingWork deferredWork = new DeferredPingWork();
+        deferredWork.defer(DeferredPingWork.Kind.TERMINATE_STALE_PODS, clusterProfileProperties.uuid(), List.of(disabledAgent.elasticAgentId()));
+
+        new ServerPingRequestExecutor(serverPingRequest, Map.of(clusterProfileProperties.uuid(), agentInstances), agentClusterIndex, pluginRequest, deferredWork, Clock.DEFAULT, Duration.ofMinutes(1)).execute();
+
+        verify(pluginRequest, never()).deleteAgents(anyCollection());
+        assertTrue(agentInstances.hasInstance(disabledAgent.elasticAgentId()));
+        assertThat(deferredWork.drain())
+                .extracting(DeferredPingWork.Item::kind, DeferredPingWork.Item::agentIds)
+                .containsExactly(tuple(DeferredPingWork.Kind.TERMINATE_STALE_PODS, List.of(disabledAgent.elasticAgentId())));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PluginRequest pluginRequestWithRegisteredAgents(Agent... agents) throws ServerRequestFailedException {
+        Map<String, Agent> registeredAgents = Collections.synchronizedMap(new LinkedHashMap<>());
+        for (Agent agent : agents) {
+            registeredAgents.put(agent.elasticAgentId(), agent);
+        }
+
+        PluginRequest pluginRequest = mock(PluginRequest.class);
+        when(pluginRequest.listAgents()).thenAnswer(invocation -> {
+            synchronized (registeredAgents) {
+                return new Agents(new ArrayList<>(registeredAgents.values()));
+            }
+        });
+        doAnswer(invocation -> {
+            for (Agent agent : (Collection<Agent>) invocation.getArgument(0)) {
+                registeredAgents.computeIfPresent(agent.elasticAgentId(), (id, registered) ->
+                        new Agent(id, registered.agentState(), registered.buildState(), Agent.ConfigState.Disabled));
+            }
+            return null;
+        }).when(pluginRequest).disableAgents(anyCollection());
+        doAnswer(invocation -> {
+            for (Agent agent : (Collection<Agent>) invocation.getArgument(0)) {
+                registeredAgents.remove(agent.elasticAgentId());
+            }
+            return null;
+        }).when(pluginRequest).deleteAgents(anyCollection());
+        return pluginRequest;
     }
 
     @Test
@@ -212,6 +317,9 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         objectMetadata.setCreationTimestamp(Constants.KUBERNETES_POD_CREATION_TIME_FORMAT.format(Instant.now().minus(20, MINUTES)));
 
         when(mockedPod.getMetadata()).thenReturn(objectMetadata);
+        final PodList podList = mock(PodList.class);
+        when(mockedOperation.list(any(ListOptions.class))).thenReturn(podList);
+        when(podList.getItems()).thenReturn(List.of(mockedPod));
 
         ClusterProfileProperties clusterProfilePropertiesForCluster1 = new ClusterProfileProperties("https://localhost:8154/go", null, null);
 
@@ -220,7 +328,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
 
         final Agents allAgentsInitially = new Agents();
 
-        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory);
+        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
         agentInstancesForCluster1.register(k8sUnregisteredCluster1Pod1);
         agentInstancesForCluster1.register(k8sUnregisteredCluster1Pod2);
 
@@ -237,10 +345,13 @@ public class ServerPingRequestExecutorTest extends BaseTest {
         assertTrue(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sUnregisteredCluster1Pod1.podName()));
         assertTrue(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sUnregisteredCluster1Pod2.podName()));
 
-        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, pluginRequest).execute();
 
         assertFalse(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sUnregisteredCluster1Pod1.podName()));
         assertTrue(clusterSpecificInstances.get(clusterProfilePropertiesForCluster1.uuid()).hasInstance(k8sUnregisteredCluster1Pod2.podName()));
+        verify(mockedOperation, times(1)).list(any(ListOptions.class));
+        verify(podResource, never()).get();
+        verify(pluginRequest, times(1)).listAgents();
     }
 
     @Test
@@ -252,7 +363,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
 
         final Agents allAgents = new Agents(Arrays.asList(agent1, agent2));
 
-        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory);
+        KubernetesAgentInstances agentInstancesForCluster1 = new KubernetesAgentInstances(factory, new KubernetesInstanceFactory(), agentClusterIndex);
 
         HashMap<String, KubernetesAgentInstances> clusterSpecificInstances = new HashMap<>();
         clusterSpecificInstances.put(clusterProfilePropertiesForCluster1.uuid(), agentInstancesForCluster1);
@@ -264,7 +375,7 @@ public class ServerPingRequestExecutorTest extends BaseTest {
 
         when(pluginRequest.listAgents()).thenReturn(allAgents);
 
-        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, pluginRequest).execute();
+        new ServerPingRequestExecutor(serverPingRequest, clusterSpecificInstances, agentClusterIndex, pluginRequest).execute();
 
         verify(pluginRequest, atLeastOnce()).disableAgents(Arrays.asList(agent2, agent1));
         verify(pluginRequest, atLeastOnce()).deleteAgents(Arrays.asList(agent2, agent1));
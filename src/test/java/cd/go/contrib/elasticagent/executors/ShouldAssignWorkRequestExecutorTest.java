@@ -21,6 +21,7 @@ import cd.go.contrib.elasticagent.model.JobIdentifier;
 import cd.go.contrib.elasticagent.requests.CreateAgentRequest;
 import cd.go.contrib.elasticagent.requests.ShouldAssignWorkRequest;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
+import io.fabric8.kubernetes.api.model.ListOptions;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.PodList;
 import io.fabric8.kubernetes.client.KubernetesClient;
@@ -76,7 +77,8 @@ public class ShouldAssignWorkRequestExecutorTest extends BaseTest {
         when(mockedClient.pods()).thenReturn(mockedOperation);
 
         final PodList podList = mock(PodList.class);
-        when(mockedOperation.list()).thenReturn(podList);
+        when(mockedOperation.withLabel(Constants.KUBERNETES_POD_KIND_LABEL_KEY, Constants.KUBERNETES_POD_KIND_LABEL_VALUE)).thenReturn(mockedOperation);
+        when(mockedOperation.list(any(ListOptions.class))).thenReturn(podList);
         when(podList.getItems()).thenReturn(Collections.emptyList());
 
         when(mockedOperation.resource(any(Pod.class))).thenAnswer((Answer<PodResource>) invocation -> {